@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Realistic, repeatable inputs for the benchmarks.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+final class Inputs {
+
+    private Inputs() {
+    }
+
+    /**
+     * A cut list in timingData format, like the ones the detector writes: lots
+     * of short segments, in order, with small gaps.
+     *
+     * @param lines
+     * @return
+     */
+    static String cutList(int lines) {
+        Random random = new Random(42);
+        StringBuilder result = new StringBuilder(lines * 26);
+        long start = random.nextInt(60000);
+        for (int i = 0; i < lines; i += 1) {
+            long duration = 1000 + random.nextInt(20 * 60 * 1000);
+            result.append(format(start)).append('\t').append(format(duration)).append('\n');
+            start += duration + random.nextInt(5 * 60 * 1000);
+        }
+        return result.toString();
+    }
+
+    /**
+     * A progress stream made by repeating a recording of ffmpeg's
+     * <code>-progress</code> output.
+     *
+     * @param blocks roughly how many progress blocks to include
+     * @return
+     * @throws IOException
+     */
+    static byte[] progressStream(int blocks) throws IOException {
+        byte[] sample = resource("/progress-sample.txt");
+        int samplesBlocks = 3;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sample.length * blocks / samplesBlocks + 32);
+        for (int i = 0; i < blocks; i += samplesBlocks) {
+            out.write(sample);
+        }
+        out.write("progress=end\n".getBytes("US-ASCII"));
+        return out.toByteArray();
+    }
+
+    static byte[] resource(String name) throws IOException {
+        try (InputStream in = Inputs.class.getResourceAsStream(name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static String format(long millis) {
+        return String.format("%02d:%02d:%02d.%03d",
+                millis / 3600000, (millis / 60000) % 60, (millis / 1000) % 60, millis % 1000);
+    }
+}
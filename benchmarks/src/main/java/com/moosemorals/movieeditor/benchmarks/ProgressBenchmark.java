@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.benchmarks;
+
+import com.moosemorals.movieeditor.ProgressMonitor;
+import com.moosemorals.movieeditor.ProgressParser;
+import com.moosemorals.movieeditor.ProgressTracker;
+import com.moosemorals.movieeditor.TimingPair;
+import com.moosemorals.movieeditor.http.MonitorRegistry;
+import com.moosemorals.movieeditor.http.ProgressRequestHandler;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading a recorded ffmpeg progress stream: the bare parser, the tracker
+ * that feeds the monitor, and the whole HTTP handler.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgressBenchmark {
+
+    private static final int BLOCKS = 3000;
+    private static final String URI = "/?start=00:00:00.000&duration=00:10:00.000";
+
+    private byte[] stream;
+    private List<TimingPair> timings;
+    private ProgressMonitor monitor;
+    private ProgressRequestHandler handler;
+
+    @Setup
+    public void setup() throws IOException {
+        stream = Inputs.progressStream(BLOCKS);
+        timings = Collections.singletonList(new TimingPair("00:00:00.000", "00:10:00.000"));
+        monitor = new ProgressMonitor(timings);
+        handler = new ProgressRequestHandler(new MonitorRegistry(monitor));
+    }
+
+    @Benchmark
+    public void parser(Blackhole bh) {
+        ProgressParser parser = new ProgressParser(record -> bh.consume(record.getOutTimeUs()));
+        parser.feed(stream, 0, stream.length);
+        parser.finish();
+    }
+
+    @Benchmark
+    public void tracker() {
+        ProgressTracker tracker = new ProgressTracker(monitor, timings);
+        tracker.feed(stream, 0, stream.length);
+        tracker.finish();
+    }
+
+    @Benchmark
+    public HttpResponse handler() throws HttpException, IOException {
+        BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", URI);
+        request.setEntity(new ByteArrayEntity(stream));
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        handler.handle(request, response, new BasicHttpContext());
+        return response;
+    }
+}
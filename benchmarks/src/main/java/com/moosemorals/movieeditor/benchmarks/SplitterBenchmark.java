@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.benchmarks;
+
+import com.moosemorals.movieeditor.Config;
+import com.moosemorals.movieeditor.ProgressMonitor;
+import com.moosemorals.movieeditor.Splitter;
+import com.moosemorals.movieeditor.TimingDataParser;
+import com.moosemorals.movieeditor.TimingPair;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole runs of {@link Splitter#split} against a stub ffmpeg, so this measures
+ * our own overhead (process handling, temp files, progress) rather than the
+ * media. Needs a POSIX shell.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SplitterBenchmark {
+
+    @Param({"PER_SEGMENT", "SINGLE_PASS"})
+    public String mode;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private File dir;
+    private Config config;
+    private List<TimingPair> pairs;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("splitter-bench").toFile();
+
+        File ffmpeg = new File(dir, "ffmpeg");
+        try (FileOutputStream out = new FileOutputStream(ffmpeg)) {
+            out.write(Inputs.resource("/stub-ffmpeg.sh"));
+        }
+        ffmpeg.setExecutable(true);
+
+        File input = new File(dir, "input.ts");
+        Files.write(input.toPath(), new byte[188 * 1024]);
+
+        config = new Config.Builder()
+                .setInputFile(input.getAbsolutePath())
+                .setOutputFile(new File(dir, "output.ts").getAbsolutePath())
+                .setTempDir(dir)
+                .setThreads(threads)
+                .setExtractMode(Config.ExtractMode.valueOf(mode))
+                .setFfmpeg(ffmpeg.getAbsolutePath())
+                .setResume(false)
+                .build();
+
+        pairs = TimingDataParser.parse(new InputStreamReader(TimingPair.class.getResourceAsStream("/timingData"), "utf-8"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        delete(dir);
+    }
+
+    @Benchmark
+    public void split() throws IOException {
+        Splitter.split(config, pairs, new ProgressMonitor(pairs));
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.benchmarks;
+
+import com.moosemorals.movieeditor.CutList;
+import com.moosemorals.movieeditor.TimingDataParser;
+import com.moosemorals.movieeditor.TimingPair;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and formatting times, and reading whole cut lists.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimingBenchmark {
+
+    private static final int LINES = 10000;
+
+    private String cutList;
+    private String[] stamps;
+    private long[] durations;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        cutList = Inputs.cutList(LINES);
+        String[] lines = cutList.split("\n");
+        stamps = new String[lines.length];
+        durations = new long[lines.length];
+        for (int i = 0; i < lines.length; i += 1) {
+            stamps[i] = lines[i].substring(0, lines[i].indexOf('\t'));
+            durations[i] = TimingPair.parseMillis(stamps[i]);
+        }
+    }
+
+    @Benchmark
+    public long parse() {
+        next = (next + 1) % stamps.length;
+        return TimingPair.parseMillis(stamps[next]);
+    }
+
+    @Benchmark
+    public String format() {
+        next = (next + 1) % durations.length;
+        return TimingPair.format(durations[next]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public CutList parseCutList() throws IOException {
+        return TimingDataParser.parse(new StringReader(cutList));
+    }
+}
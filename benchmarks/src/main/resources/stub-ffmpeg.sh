@@ -0,0 +1,16 @@
+#!/bin/sh
+# Stand in for ffmpeg. Writes a small file for every .ts or .partial output,
+# and reports progress on stdout as "-progress pipe:1" would.
+prev=""
+for arg in "$@"; do
+    case "$arg" in
+        *.ts|*.partial)
+            if [ "$prev" != "-i" ]; then
+                head -c 65536 /dev/zero > "$arg"
+            fi
+            ;;
+    esac
+    prev="$arg"
+done
+printf 'frame=0\nfps=0.00\nbitrate=N/A\ntotal_size=0\nout_time_us=0\nspeed=N/A\nprogress=continue\n'
+printf 'frame=25000\nfps=2500.00\nbitrate=1500.0kbits/s\ntotal_size=65536\nout_time_us=86400000000\nspeed=100x\nprogress=end\n'
@@ -33,18 +33,96 @@ import org.slf4j.LoggerFactory;
  */
 public class Config {
 
+    /**
+     * How segments are cut out of the input.
+     */
+    public enum ExtractMode {
+        /**
+         * One ffmpeg run per segment, each seeking into the input.
+         */
+        PER_SEGMENT,
+        /**
+         * One ffmpeg run that reads the input once and writes every segment.
+         */
+        SINGLE_PASS,
+        /**
+         * Cut packets straight out of the input with {@link TsCutter}, using
+         * ffmpeg for any segment it can't handle.
+         */
+        NATIVE,
+        /**
+         * One ffmpeg run per segment, each writing to a pipe that is copied
+         * straight into the output. No parts are written to disk, and there's
+         * no concat step.
+         */
+        STREAM
+    }
+
+    /**
+     * How ffmpeg reports progress.
+     */
+    public enum ProgressTransport {
+        /**
+         * Written to ffmpeg's stdout and read while draining the process.
+         */
+        PIPE,
+        /**
+         * Posted to {@link com.moosemorals.movieeditor.http.LocalServer}, which
+         * must be running on {@link #getPort()}.
+         */
+        HTTP
+    }
+
     private final Logger log = LoggerFactory.getLogger(Config.class);
 
     private final String inputFile;
     private final String outputFile;
     private final int port;
     private final File tempDir;
+    private final int threads;
+    private final ExtractMode extractMode;
+    private final boolean indexed;
+    private final String jobId;
+    private final ProgressTransport progressTransport;
+    private final boolean asyncServer;
+    private final boolean serveMetrics;
+    private final String ffmpeg;
+    private final boolean optimizeCutList;
+    private final long mergeGap;
+    private final long minSegment;
+    private final boolean resume;
+    private final long cacheSize;
+    private final long processTimeout;
+    private final boolean nativeConcat;
+    private final File stagingDir;
+    private final long stagingBudget;
+    private final File traceFile;
+    private final String cacheKey;
 
-    public Config(String inputFile, String outputFile, int port, File tempDir) {
+    public Config(String inputFile, String outputFile, int port, File tempDir, int threads, ExtractMode extractMode, boolean indexed, String jobId, ProgressTransport progressTransport, boolean asyncServer, boolean serveMetrics, String ffmpeg, boolean optimizeCutList, long mergeGap, long minSegment, boolean resume, long cacheSize, long processTimeout, boolean nativeConcat, File stagingDir, long stagingBudget, File traceFile, String cacheKey) {
         this.inputFile = inputFile;
         this.outputFile = outputFile;
         this.port = port;
         this.tempDir = tempDir;
+        this.threads = threads;
+        this.extractMode = extractMode;
+        this.indexed = indexed;
+        this.jobId = jobId;
+        this.progressTransport = progressTransport;
+        this.asyncServer = asyncServer;
+        this.serveMetrics = serveMetrics;
+        this.ffmpeg = ffmpeg;
+        this.optimizeCutList = optimizeCutList;
+        this.mergeGap = mergeGap;
+        this.minSegment = minSegment;
+        this.resume = resume;
+        this.cacheSize = cacheSize;
+        this.processTimeout = processTimeout;
+        this.nativeConcat = nativeConcat;
+        this.stagingDir = stagingDir;
+        this.stagingBudget = stagingBudget;
+        this.traceFile = traceFile;
+        this.cacheKey = cacheKey;
     }
 
     public String getInputFile() {
@@ -63,17 +141,246 @@ public class Config {
         return tempDir;
     }
 
+    /**
+     * Number of segments that can be cut at the same time. Values less than
+     * two mean segments are cut one after another.
+     *
+     * @return
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public ExtractMode getExtractMode() {
+        return extractMode;
+    }
+
+    /**
+     * If a {@link TsIndex} of the input should be used (and built if needed)
+     * to snap cuts to keyframes.
+     *
+     * @return
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Identifies the job in progress reports when several jobs share one
+     * server. Null for a single run.
+     *
+     * @return
+     */
+    public String getJobId() {
+        return jobId;
+    }
+
+    public ProgressTransport getProgressTransport() {
+        return progressTransport;
+    }
+
+    /**
+     * If HTTP progress should be served by the non-blocking
+     * {@link com.moosemorals.movieeditor.http.AsyncLocalServer}.
+     *
+     * @return
+     */
+    public boolean isAsyncServer() {
+        return asyncServer;
+    }
+
+    /**
+     * If the server should run, and serve <code>/metrics</code>, even when
+     * progress isn't going over HTTP.
+     *
+     * @return
+     */
+    public boolean isServeMetrics() {
+        return serveMetrics;
+    }
+
+    /**
+     * Path to the ffmpeg executable.
+     *
+     * @return
+     */
+    public String getFfmpeg() {
+        return ffmpeg;
+    }
+
+    /**
+     * If the cut list should be sorted, merged and pruned by
+     * {@link CutListOptimizer} before splitting.
+     *
+     * @return
+     */
+    public boolean isOptimizeCutList() {
+        return optimizeCutList;
+    }
+
+    /**
+     * Segments closer together than this many milliseconds are merged.
+     *
+     * @return
+     */
+    public long getMergeGap() {
+        return mergeGap;
+    }
+
+    /**
+     * Segments shorter than this many milliseconds are dropped.
+     *
+     * @return
+     */
+    public long getMinSegment() {
+        return minSegment;
+    }
+
+    /**
+     * If parts finished by an earlier run on the same input should be reused,
+     * rather than cut again.
+     *
+     * @return
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Most bytes of finished parts to keep in the temp dir for reuse. Zero
+     * or less for no limit.
+     *
+     * @return
+     */
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Longest any one ffmpeg run may take, in milliseconds, before it is
+     * killed. Zero or less for no limit.
+     *
+     * @return
+     */
+    public long getProcessTimeout() {
+        return processTimeout;
+    }
+
+    /**
+     * If parts should be joined with {@link TsConcatenator} when the output is
+     * a transport stream, rather than with ffmpeg.
+     *
+     * @return
+     */
+    public boolean isNativeConcat() {
+        return nativeConcat;
+    }
+
+    /**
+     * RAM backed directory, such as <code>/dev/shm</code>, where parts are
+     * staged while they fit {@link #getStagingBudget()}. Null to always use
+     * the temp dir.
+     *
+     * @return
+     */
+    public File getStagingDir() {
+        return stagingDir;
+    }
+
+    /**
+     * Most bytes of parts to stage in {@link #getStagingDir()} at once. Parts
+     * that won't fit, or whose size can't be estimated, go to the temp dir.
+     * Zero or less to turn staging off.
+     *
+     * @return
+     */
+    public long getStagingBudget() {
+        return stagingBudget;
+    }
+
+    /**
+     * Where to write a Chrome trace-event file of each split, for loading
+     * into Perfetto or <code>chrome://tracing</code>. Null for no tracing.
+     *
+     * @return
+     */
+    public File getTraceFile() {
+        return traceFile;
+    }
+
+    /**
+     * Identifies the input in the part cache in place of its size and
+     * modification time, for inputs that change while they're cut, such as
+     * recordings still being written. Whoever sets it has to change it if the
+     * input is replaced. Null to go by size and modification time.
+     *
+     * @return
+     */
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
     public static class Builder {
 
         private String inputFile;
         private String outputFile;
         private int port;
         private File tempDir;
+        private int threads = 1;
+        private ExtractMode extractMode = ExtractMode.PER_SEGMENT;
+        private boolean indexed;
+        private String jobId;
+        private ProgressTransport progressTransport = ProgressTransport.PIPE;
+        private boolean asyncServer;
+        private boolean serveMetrics;
+        private String ffmpeg = "/usr/bin/ffmpeg";
+        private boolean optimizeCutList = true;
+        private long mergeGap;
+        private long minSegment;
+        private boolean resume = true;
+        private long cacheSize = 16L * 1024 * 1024 * 1024;
+        private long processTimeout;
+        private boolean nativeConcat = true;
+        private File stagingDir;
+        private long stagingBudget;
+        private File traceFile;
+        private String cacheKey;
 
         public Builder() {
             super();
         }
 
+        /**
+         * Start with the settings from an existing config.
+         *
+         * @param config
+         */
+        public Builder(Config config) {
+            this.inputFile = config.inputFile;
+            this.outputFile = config.outputFile;
+            this.port = config.port;
+            this.tempDir = config.tempDir;
+            this.threads = config.threads;
+            this.extractMode = config.extractMode;
+            this.indexed = config.indexed;
+            this.jobId = config.jobId;
+            this.progressTransport = config.progressTransport;
+            this.asyncServer = config.asyncServer;
+            this.serveMetrics = config.serveMetrics;
+            this.ffmpeg = config.ffmpeg;
+            this.optimizeCutList = config.optimizeCutList;
+            this.mergeGap = config.mergeGap;
+            this.minSegment = config.minSegment;
+            this.resume = config.resume;
+            this.cacheSize = config.cacheSize;
+            this.processTimeout = config.processTimeout;
+            this.nativeConcat = config.nativeConcat;
+            this.stagingDir = config.stagingDir;
+            this.stagingBudget = config.stagingBudget;
+            this.traceFile = config.traceFile;
+            this.cacheKey = config.cacheKey;
+        }
+
         public Builder setInputFile(String inputFile) {
             this.inputFile = inputFile;
             return this;
@@ -94,8 +401,103 @@ public class Config {
             return this;
         }
 
+        public Builder setThreads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder setExtractMode(ExtractMode extractMode) {
+            this.extractMode = extractMode;
+            return this;
+        }
+
+        public Builder setIndexed(boolean indexed) {
+            this.indexed = indexed;
+            return this;
+        }
+
+        public Builder setJobId(String jobId) {
+            this.jobId = jobId;
+            return this;
+        }
+
+        public Builder setProgressTransport(ProgressTransport progressTransport) {
+            this.progressTransport = progressTransport;
+            return this;
+        }
+
+        public Builder setAsyncServer(boolean asyncServer) {
+            this.asyncServer = asyncServer;
+            return this;
+        }
+
+        public Builder setServeMetrics(boolean serveMetrics) {
+            this.serveMetrics = serveMetrics;
+            return this;
+        }
+
+        public Builder setFfmpeg(String ffmpeg) {
+            this.ffmpeg = ffmpeg;
+            return this;
+        }
+
+        public Builder setOptimizeCutList(boolean optimizeCutList) {
+            this.optimizeCutList = optimizeCutList;
+            return this;
+        }
+
+        public Builder setMergeGap(long mergeGap) {
+            this.mergeGap = mergeGap;
+            return this;
+        }
+
+        public Builder setMinSegment(long minSegment) {
+            this.minSegment = minSegment;
+            return this;
+        }
+
+        public Builder setResume(boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        public Builder setCacheSize(long cacheSize) {
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        public Builder setProcessTimeout(long processTimeout) {
+            this.processTimeout = processTimeout;
+            return this;
+        }
+
+        public Builder setNativeConcat(boolean nativeConcat) {
+            this.nativeConcat = nativeConcat;
+            return this;
+        }
+
+        public Builder setStagingDir(File stagingDir) {
+            this.stagingDir = stagingDir;
+            return this;
+        }
+
+        public Builder setStagingBudget(long stagingBudget) {
+            this.stagingBudget = stagingBudget;
+            return this;
+        }
+
+        public Builder setTraceFile(File traceFile) {
+            this.traceFile = traceFile;
+            return this;
+        }
+
+        public Builder setCacheKey(String cacheKey) {
+            this.cacheKey = cacheKey;
+            return this;
+        }
+
         public Config build() {
-            return new Config(inputFile, outputFile, port, tempDir);
+            return new Config(inputFile, outputFile, port, tempDir, threads, extractMode, indexed, jobId, progressTransport, asyncServer, serveMetrics, ffmpeg, optimizeCutList, mergeGap, minSegment, resume, cacheSize, processTimeout, nativeConcat, stagingDir, stagingBudget, traceFile, cacheKey);
         }
     }
 
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A list of segments kept as two primitive arrays, so a cut list with
+ * thousands of entries is two allocations rather than thousands.
+ * {@link #get(int)} makes a {@link TimingPair} on demand for code that wants
+ * one; hot paths should use {@link #getStartMillis(int)} and
+ * {@link #getDurationMillis(int)}.
+ *
+ * Not thread safe.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class CutList extends AbstractList<TimingPair> implements RandomAccess {
+
+    private long[] starts;
+    private long[] durations;
+    private int size = 0;
+
+    public CutList() {
+        this(16);
+    }
+
+    public CutList(int capacity) {
+        starts = new long[Math.max(1, capacity)];
+        durations = new long[starts.length];
+    }
+
+    public CutList(Collection<TimingPair> pairs) {
+        this(pairs.size());
+        if (pairs instanceof CutList) {
+            CutList other = (CutList) pairs;
+            System.arraycopy(other.starts, 0, starts, 0, other.size);
+            System.arraycopy(other.durations, 0, durations, 0, other.size);
+            size = other.size;
+        } else {
+            for (TimingPair pair : pairs) {
+                add(pair.getStartMillis(), pair.getDurationMillis());
+            }
+        }
+    }
+
+    /**
+     * Wrap a list as a CutList, copying only if it isn't one already.
+     *
+     * @param pairs
+     * @return
+     */
+    public static CutList of(Collection<TimingPair> pairs) {
+        return pairs instanceof CutList ? (CutList) pairs : new CutList(pairs);
+    }
+
+    public void add(long start, long duration) {
+        if (size == starts.length) {
+            int capacity = size + (size >> 1) + 1;
+            starts = Arrays.copyOf(starts, capacity);
+            durations = Arrays.copyOf(durations, capacity);
+        }
+        starts[size] = start;
+        durations[size] = duration;
+        size += 1;
+        modCount += 1;
+    }
+
+    @Override
+    public boolean add(TimingPair pair) {
+        add(pair.getStartMillis(), pair.getDurationMillis());
+        return true;
+    }
+
+    @Override
+    public TimingPair get(int index) {
+        check(index);
+        return new TimingPair(starts[index], durations[index]);
+    }
+
+    @Override
+    public TimingPair set(int index, TimingPair pair) {
+        TimingPair old = get(index);
+        starts[index] = pair.getStartMillis();
+        durations[index] = pair.getDurationMillis();
+        return old;
+    }
+
+    @Override
+    public TimingPair remove(int index) {
+        TimingPair old = get(index);
+        int tail = size - index - 1;
+        System.arraycopy(starts, index + 1, starts, index, tail);
+        System.arraycopy(durations, index + 1, durations, index, tail);
+        size -= 1;
+        modCount += 1;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount += 1;
+    }
+
+    public long getStartMillis(int index) {
+        check(index);
+        return starts[index];
+    }
+
+    public long getDurationMillis(int index) {
+        check(index);
+        return durations[index];
+    }
+
+    public long getEndMillis(int index) {
+        check(index);
+        return starts[index] + durations[index];
+    }
+
+    /**
+     * @return the sum of all the durations
+     */
+    public long getTotalMillis() {
+        long total = 0;
+        for (int i = 0; i < size; i += 1) {
+            total += durations[i];
+        }
+        return total;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void check(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tidies a cut list before it's split: sorts it, merges segments that overlap
+ * or touch, merges segments separated by less than a gap threshold, and drops
+ * segments shorter than a minimum. Every segment that goes away saves an
+ * ffmpeg run and a concat entry.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class CutListOptimizer {
+
+    private static final Logger log = LoggerFactory.getLogger(CutListOptimizer.class);
+
+    private final long mergeGap;
+    private final long minDuration;
+
+    /**
+     * @param mergeGap segments closer than this (ms) are merged. Zero only
+     * merges segments that overlap or touch.
+     * @param minDuration segments shorter than this (ms), after merging, are
+     * dropped
+     */
+    public CutListOptimizer(long mergeGap, long minDuration) {
+        this.mergeGap = Math.max(0, mergeGap);
+        this.minDuration = Math.max(0, minDuration);
+    }
+
+    public CutListOptimizer(Config config) {
+        this(config.getMergeGap(), config.getMinSegment());
+    }
+
+    /**
+     * Optimize <code>pairs</code> as the config says, estimating the bitrate
+     * from the input file. Call this before building the
+     * {@link ProgressMonitor}, which counts segments.
+     *
+     * @param config
+     * @param pairs
+     * @return the optimized list, or <code>pairs</code> if the config turns
+     * optimization off
+     */
+    public static List<TimingPair> optimize(Config config, List<TimingPair> pairs) {
+        if (!config.isOptimizeCutList() || pairs.isEmpty()) {
+            return pairs;
+        }
+        return new CutListOptimizer(config).optimize(CutList.of(pairs), estimateBytesPerMs(config.getInputFile())).getPairs();
+    }
+
+    /**
+     * @param input
+     * @return bytes per millisecond, or -1 if the input can't be read as a
+     * transport stream
+     */
+    static double estimateBytesPerMs(String input) {
+        try (TsFile ts = new TsFile(new File(input))) {
+            return ts.estimateBytesPerMs();
+        } catch (IOException ex) {
+            log.debug("Can't estimate bitrate of {}: {}", input, ex.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * @param pairs
+     * @param bytesPerMs bitrate of the input, used to estimate bytes saved.
+     * Pass a negative number if it's not known.
+     * @return
+     */
+    public Result optimize(CutList pairs, double bytesPerMs) {
+        int count = pairs.size();
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        for (int i = 0; i < count; i += 1) {
+            starts[i] = pairs.getStartMillis(i);
+            ends[i] = pairs.getEndMillis(i);
+        }
+        sort(starts, ends);
+
+        CutList result = new CutList(count);
+        int merged = 0;
+        int dropped = 0;
+        int i = 0;
+        while (i < count) {
+            long start = starts[i];
+            long end = ends[i];
+            i += 1;
+            while (i < count && starts[i] - end <= mergeGap) {
+                end = Math.max(end, ends[i]);
+                merged += 1;
+                i += 1;
+            }
+            if (end - start < minDuration || end <= start) {
+                dropped += 1;
+            } else {
+                result.add(start, end - start);
+            }
+        }
+
+        long before = pairs.getTotalMillis();
+        long after = result.getTotalMillis();
+        Result r = new Result(result, count - result.size(), merged, dropped,
+                bytesPerMs < 0 ? 0 : Math.round((before - after) * bytesPerMs));
+        log.info("Cut list {} -> {} segments ({} merged, {} dropped), saving {} launches and {} bytes",
+                count, result.size(), merged, dropped, r.getLaunchesSaved(), r.getBytesSaved());
+        return r;
+    }
+
+    /**
+     * Sort by start, keeping ends alongside. Cut lists are almost always in
+     * order already, so the arrays are only copied out into pairs and sorted
+     * if something is out of place.
+     */
+    private static void sort(long[] starts, long[] ends) {
+        for (int i = 1; i < starts.length; i += 1) {
+            if (starts[i] < starts[i - 1]) {
+                long[][] packed = new long[starts.length][];
+                for (int j = 0; j < starts.length; j += 1) {
+                    packed[j] = new long[]{starts[j], ends[j]};
+                }
+                Arrays.sort(packed, (a, b) -> Long.compare(a[0], b[0]));
+                for (int j = 0; j < starts.length; j += 1) {
+                    starts[j] = packed[j][0];
+                    ends[j] = packed[j][1];
+                }
+                return;
+            }
+        }
+    }
+
+    public static class Result {
+
+        private final CutList pairs;
+        private final int launchesSaved;
+        private final int merged;
+        private final int dropped;
+        private final long bytesSaved;
+
+        Result(CutList pairs, int launchesSaved, int merged, int dropped, long bytesSaved) {
+            this.pairs = pairs;
+            this.launchesSaved = launchesSaved;
+            this.merged = merged;
+            this.dropped = dropped;
+            this.bytesSaved = bytesSaved;
+        }
+
+        public CutList getPairs() {
+            return pairs;
+        }
+
+        /**
+         * @return how many fewer ffmpeg runs the split needs
+         */
+        public int getLaunchesSaved() {
+            return launchesSaved;
+        }
+
+        public int getMerged() {
+            return merged;
+        }
+
+        public int getDropped() {
+            return dropped;
+        }
+
+        /**
+         * Estimated bytes not written. Negative if merging across gaps added
+         * more than overlaps and slivers took away.
+         *
+         * @return bytes, or 0 if the bitrate wasn't known
+         */
+        public long getBytesSaved() {
+            return bytesSaved;
+        }
+    }
+}
@@ -23,10 +23,26 @@
  */
 package com.moosemorals.movieeditor;
 
+import com.moosemorals.movieeditor.batch.JobQueue;
+import com.moosemorals.movieeditor.batch.Scheduler;
+import com.moosemorals.movieeditor.cluster.Coordinator;
+import com.moosemorals.movieeditor.cluster.Worker;
+import com.moosemorals.movieeditor.detect.BreakDetector;
+import com.moosemorals.movieeditor.http.AsyncLocalServer;
 import com.moosemorals.movieeditor.http.LocalServer;
+import com.moosemorals.movieeditor.http.MonitorRegistry;
+import com.moosemorals.movieeditor.http.ProgressServer;
+import com.moosemorals.movieeditor.http.RequestMapper;
+import com.moosemorals.movieeditor.watch.Watcher;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -35,28 +51,267 @@ import java.util.List;
  */
 public class Main {
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
 
-        Config config = new Config.Builder()
+        if (args.length > 0 && args[0].equals("batch")) {
+            batch(args);
+            return;
+        } else if (args.length > 0 && args[0].equals("detect")) {
+            detect(args);
+            return;
+        } else if (args.length > 0 && args[0].equals("cluster")) {
+            cluster(args);
+            return;
+        } else if (args.length > 0 && args[0].equals("split")) {
+            split(args);
+            return;
+        } else if (args.length > 0 && args[0].equals("watch")) {
+            watch(args);
+            return;
+        }
+
+        Config config = defaults()
                 .setInputFile("/home/media/Video/Movies/Super Heroes/Marvel MCU - 1x02 - The Incredible Hulk  [1920x1080 - Freeview - ITV HD] UNEDITED.ts")
                 .setOutputFile("/home/osric/scratch/result.ts")
-                .setTempDir(new File("/home/osric/scratch"))
-                .setPort(25245)
                 .build();
 
         List<TimingPair> timingPairs = TimingDataParser.parse(new InputStreamReader(Main.class.getResourceAsStream("/timingData"), "utf-8"));
+        timingPairs = CutListOptimizer.optimize(config, timingPairs);
 
-        ProgressMonitor monitor = new ProgressMonitor(timingPairs);
+        ProgressMonitor monitor = new ProgressMonitor(timingPairs, ProgressHistory.load(config));
 
-        UI ui = new UI(monitor);
-        LocalServer httpServer = new LocalServer(config.getPort(), monitor);
+        ProgressServer httpServer = startServer(config, new MonitorRegistry(monitor));
+        if (startUI(monitor) == null) {
+            monitor.addListener(new ProgressLogger());
+        }
+
+        Splitter.split(config, timingPairs, monitor);
+
+        if (httpServer != null) {
+            httpServer.stop();
+        }
+    }
+
+    /**
+     * <code>split &lt;input&gt; &lt;cut list&gt; &lt;output&gt; [--ui]</code>
+     * cuts one recording. Progress is logged, or shown in a window with
+     * <code>--ui</code> if there's a display. Without <code>--ui</code>
+     * nothing from AWT or Swing is loaded.
+     */
+    private static void split(String[] args) throws IOException {
+        boolean ui = false;
+        List<String> files = new ArrayList<>();
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--ui")) {
+                ui = true;
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (files.size() != 3) {
+            System.err.println("Usage: split <input> <cut list> <output> [--ui]");
+            return;
+        }
+
+        Config config = defaults()
+                .setInputFile(files.get(0))
+                .setOutputFile(files.get(2))
+                .build();
 
-        httpServer.start();
+        List<TimingPair> timingPairs;
+        try (Reader in = new InputStreamReader(new FileInputStream(files.get(1)), "utf-8")) {
+            timingPairs = TimingDataParser.parse(in);
+        }
+        timingPairs = CutListOptimizer.optimize(config, timingPairs);
+
+        ProgressMonitor monitor = new ProgressMonitor(timingPairs, ProgressHistory.load(config));
+        ProgressServer httpServer = startServer(config, new MonitorRegistry(monitor));
+        UI window = ui ? startUI(monitor) : null;
+        if (window == null) {
+            monitor.addListener(new ProgressLogger());
+        }
+
+        try {
+            Splitter.split(config, timingPairs, monitor);
+        } finally {
+            if (httpServer != null) {
+                httpServer.stop();
+            }
+            if (window != null) {
+                window.stop();
+            }
+        }
+    }
+
+    /**
+     * <code>watch &lt;folder&gt; &lt;output folder&gt;</code> cuts
+     * recordings that turn up in the folder, as they're written, and puts the
+     * results in the output folder. See {@link Watcher} for where cut lists
+     * go.
+     */
+    private static void watch(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: watch <folder> <output folder>");
+            return;
+        }
+        new Watcher(new File(args[1]), new File(args[2]), defaults().build()).run();
+    }
+
+    /**
+     * Show progress in a window, if there's a display. Kept apart so that
+     * {@link UI} and Swing are only loaded when they're wanted.
+     *
+     * @return the window, or null if there's no display
+     */
+    private static UI startUI(ProgressMonitor monitor) {
+        if (java.awt.GraphicsEnvironment.isHeadless()) {
+            return null;
+        }
+        UI ui = new UI(monitor);
         ui.start();
+        return ui;
+    }
+
+    /**
+     * <code>batch &lt;queue&gt; add &lt;input&gt; &lt;cut list&gt; &lt;output&gt; [priority]</code>
+     * queues a job.
+     * <code>batch &lt;queue&gt; run [concurrent jobs]</code> runs every job in
+     * the queue, in this JVM, and exits when it's empty.
+     */
+    private static void batch(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: batch <queue> add <input> <cut list> <output> [priority]");
+            System.err.println("       batch <queue> run [concurrent jobs]");
+            return;
+        }
 
-        Splitter.split(config, timingPairs);
+        JobQueue queue = JobQueue.load(new File(args[1]));
 
-        httpServer.stop();
+        switch (args[2]) {
+            case "add":
+                if (args.length < 6) {
+                    System.err.println("Usage: batch <queue> add <input> <cut list> <output> [priority]");
+                    return;
+                }
+                queue.add(args.length > 6 ? Integer.parseInt(args[6]) : 0, args[3], args[4], args[5]);
+                break;
+            case "run":
+                Config config = defaults().build();
+                MonitorRegistry monitors = new MonitorRegistry(null);
+                ProgressServer httpServer = startServer(config, monitors);
+
+                queue.recover();
+                try {
+                    new Scheduler(queue, config, monitors, args.length > 3 ? Integer.parseInt(args[3]) : 1).run(false);
+                } finally {
+                    queue.close();
+                }
+
+                if (httpServer != null) {
+                    httpServer.stop();
+                }
+                break;
+            default:
+                System.err.println("Unknown batch command " + args[2]);
+        }
+    }
+
+    /**
+     * <code>cluster coordinate &lt;input&gt; &lt;cut list&gt; &lt;output&gt;</code>
+     * serves the job's segments to workers and joins the parts.
+     * <code>cluster work &lt;url&gt;</code> cuts segments for the coordinator
+     * at the url until it's done. Workers need the same paths to the input
+     * and temp dir as the coordinator.
+     */
+    private static void cluster(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 5 && args[1].equals("coordinate")) {
+            Config config = defaults()
+                    .setInputFile(args[2])
+                    .setOutputFile(args[4])
+                    .build();
+
+            List<TimingPair> timingPairs;
+            try (Reader in = new InputStreamReader(new FileInputStream(args[3]), "utf-8")) {
+                timingPairs = TimingDataParser.parse(in);
+            }
+            timingPairs = CutListOptimizer.optimize(config, timingPairs);
+
+            ProgressMonitor monitor = new ProgressMonitor(timingPairs, ProgressHistory.load(config));
+            Coordinator coordinator = new Coordinator(config, timingPairs, monitor);
+            ProgressServer httpServer = new LocalServer(config.getPort(), coordinator.register(new RequestMapper(new MonitorRegistry(monitor))));
+            httpServer.start();
+            try {
+                coordinator.run();
+            } finally {
+                httpServer.stop();
+            }
+        } else if (args.length > 2 && args[1].equals("work")) {
+            new Worker(args[2], defaults().build()).run();
+        } else {
+            System.err.println("Usage: cluster coordinate <input> <cut list> <output>");
+            System.err.println("       cluster work <url>");
+        }
+    }
+
+    /**
+     * <code>detect &lt;input&gt; [cut list] [output]</code> finds the
+     * programme in a recording and writes the cut list, to stdout if no file
+     * is given. With an output it goes on to split the input.
+     */
+    private static void detect(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: detect <input> [cut list] [output]");
+            return;
+        }
+
+        Config config = defaults()
+                .setInputFile(args[1])
+                .setOutputFile(args.length > 3 ? args[3] : null)
+                .build();
+
+        List<TimingPair> timingPairs = new BreakDetector(config).detect();
+
+        if (args.length > 2) {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(args[2]), "utf-8")) {
+                TimingDataWriter.write(timingPairs, out);
+            }
+        } else {
+            Writer out = new OutputStreamWriter(System.out, "utf-8");
+            TimingDataWriter.write(timingPairs, out);
+        }
+
+        if (args.length > 3) {
+            timingPairs = CutListOptimizer.optimize(config, timingPairs);
+            Splitter.split(config, timingPairs, new ProgressMonitor(timingPairs, ProgressHistory.load(config)));
+        }
+    }
+
+    /**
+     * Start the progress server, if the config says progress goes over HTTP
+     * or metrics should be served.
+     *
+     * @return the server, or null if there isn't one
+     */
+    private static ProgressServer startServer(Config config, MonitorRegistry monitors) {
+        if (config.getProgressTransport() != Config.ProgressTransport.HTTP && !config.isServeMetrics()) {
+            return null;
+        }
+        ProgressServer server = config.isAsyncServer()
+                ? new AsyncLocalServer(config.getPort(), monitors)
+                : new LocalServer(config.getPort(), monitors);
+        server.start();
+        return server;
+    }
+
+    private static Config.Builder defaults() {
+        return new Config.Builder()
+                .setTempDir(new File("/home/osric/scratch"))
+                .setPort(25245)
+                .setThreads(Runtime.getRuntime().availableProcessors())
+                .setMergeGap(1000)
+                .setMinSegment(500)
+                .setStagingDir(new File("/dev/shm"))
+                .setStagingBudget(2L * 1024 * 1024 * 1024);
     }
 
 }
@@ -0,0 +1,249 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide counters, gauges and histograms, written out in the Prometheus
+ * text exposition format by
+ * {@link com.moosemorals.movieeditor.http.MetricsRequestHandler}.
+ *
+ * Everything here is safe to update from any thread, and cheap enough to
+ * update on every progress report.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public final class Metrics {
+
+    private static final List<Metric> metrics = new ArrayList<>();
+
+    private static final double[] LATENCY_BUCKETS = {0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60, 120, 300, 600, 1800};
+
+    public static final Counter BYTES_WRITTEN = register(new Counter(
+            "movieeditor_bytes_written_total", "Bytes written to part and output files"));
+    public static final Meter WRITE_RATE = register(new Meter(
+            "movieeditor_bytes_written_per_second", "Bytes written per second, averaged over at least ten seconds", BYTES_WRITTEN));
+    public static final Gauge SPEED = register(new Gauge(
+            "movieeditor_ffmpeg_speed", "Last processing speed reported by ffmpeg, as a multiple of real time"));
+    public static final Histogram SEGMENT_SECONDS = register(new Histogram(
+            "movieeditor_segment_cut_seconds", "Time taken to cut one segment (or all of them, in a single pass)", LATENCY_BUCKETS));
+    public static final Histogram CONCAT_SECONDS = register(new Histogram(
+            "movieeditor_concat_seconds", "Time taken to join segments into the output", LATENCY_BUCKETS));
+    public static final Histogram SPAWN_SECONDS = register(new Histogram(
+            "movieeditor_process_spawn_seconds", "Time taken to start an ffmpeg process", LATENCY_BUCKETS));
+    public static final Gauge ACTIVE_JOBS = register(new Gauge(
+            "movieeditor_active_jobs", "Splits in progress"));
+    public static final Counter FAILURES = register(new Counter(
+            "movieeditor_failures_total", "Splits that failed"));
+
+    private Metrics() {
+    }
+
+    private static synchronized <T extends Metric> T register(T metric) {
+        metrics.add(metric);
+        return metric;
+    }
+
+    /**
+     * Write every metric in text exposition format.
+     *
+     * @param out
+     */
+    public static synchronized void write(StringBuilder out) {
+        for (Metric m : metrics) {
+            out.append("# HELP ").append(m.name).append(' ').append(m.help).append('\n');
+            out.append("# TYPE ").append(m.name).append(' ').append(m.type).append('\n');
+            m.write(out);
+        }
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    public abstract static class Metric {
+
+        final String name;
+        final String help;
+        final String type;
+
+        Metric(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        abstract void write(StringBuilder out);
+    }
+
+    public static final class Counter extends Metric {
+
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name, String help) {
+            super(name, help, "counter");
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            out.append(name).append(' ').append(get()).append('\n');
+        }
+    }
+
+    public static final class Gauge extends Metric {
+
+        private final AtomicLong bits = new AtomicLong(Double.doubleToLongBits(0));
+
+        Gauge(String name, String help) {
+            super(name, help, "gauge");
+        }
+
+        public void set(double value) {
+            bits.set(Double.doubleToLongBits(value));
+        }
+
+        public void add(double amount) {
+            long prev;
+            long next;
+            do {
+                prev = bits.get();
+                next = Double.doubleToLongBits(Double.longBitsToDouble(prev) + amount);
+            } while (!bits.compareAndSet(prev, next));
+        }
+
+        public double get() {
+            return Double.longBitsToDouble(bits.get());
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            out.append(name).append(' ').append(format(get())).append('\n');
+        }
+    }
+
+    /**
+     * Rate of change of a counter, worked out when it's read. The rate is only
+     * recalculated once the last one is ten seconds old, so frequent scrapes
+     * don't make it jumpy.
+     */
+    public static final class Meter extends Metric {
+
+        private static final long WINDOW_MS = 10000;
+
+        private final Counter counter;
+        private long windowStart = System.currentTimeMillis();
+        private long windowCount = 0;
+        private double rate = 0;
+
+        Meter(String name, String help, Counter counter) {
+            super(name, help, "gauge");
+            this.counter = counter;
+        }
+
+        public synchronized double get() {
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= WINDOW_MS) {
+                long count = counter.get();
+                rate = (count - windowCount) * 1000.0 / (now - windowStart);
+                windowStart = now;
+                windowCount = count;
+            }
+            return rate;
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            out.append(name).append(' ').append(format(get())).append('\n');
+        }
+    }
+
+    public static final class Histogram extends Metric {
+
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder count = new LongAdder();
+
+        Histogram(String name, String help, double[] bounds) {
+            super(name, help, "histogram");
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length];
+            for (int i = 0; i < bounds.length; i += 1) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            for (int i = 0; i < bounds.length; i += 1) {
+                if (value <= bounds[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            sum.add(value);
+            count.increment();
+        }
+
+        /**
+         * Record the time since <code>startNanos</code>, in seconds.
+         *
+         * @param startNanos from {@link System#nanoTime()}
+         */
+        public void observeSince(long startNanos) {
+            observe((System.nanoTime() - startNanos) / 1e9);
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i += 1) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket{le=\"").append(format(bounds[i])).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(name).append("_bucket{le=\"+Inf\"} ").append(count.sum()).append('\n');
+            out.append(name).append("_sum ").append(format(sum.sum())).append('\n');
+            out.append(name).append("_count ").append(count.sum()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the output of every running ffmpeg on one shared thread, so running
+ * processes don't each park a thread of their own.
+ * <p>
+ * The thread polls each process for bytes that can be read without
+ * blocking, passes them to the process's {@link ProgressTracker} (or logs
+ * them, if it doesn't have one), and sleeps when none of them had anything to
+ * say. The sleep starts at {@link #MIN_IDLE_MS} and doubles each time round
+ * that nothing was read, up to {@link #MAX_IDLE_MS}. ffmpeg only reports
+ * progress twice a second, so most of the time it's at the longest, and a
+ * new process or any output brings it straight back down. A process is
+ * finished when it has exited and its output is empty. Processes that run past their deadline, or whose future is
+ * cancelled, are killed.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+class ProcessDrainer {
+
+    static final long MIN_IDLE_MS = 2;
+    static final long MAX_IDLE_MS = 50;
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessDrainer.class);
+    private static final ProcessDrainer instance = new ProcessDrainer();
+
+    private final ConcurrentLinkedQueue<Drain> added = new ConcurrentLinkedQueue<>();
+    private final Object wake = new Object();
+
+    private ProcessDrainer() {
+        Thread t = new Thread(this::run, "ProcessDrainer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    static ProcessDrainer get() {
+        return instance;
+    }
+
+    /**
+     * Start reading a process's output.
+     *
+     * @param process
+     * @param tracker where to send progress, or null to log the output
+     * @param timeout milliseconds before the process is killed, zero or less
+     * for no limit
+     * @return completes with the exit code once the process has finished and
+     * its output has been read. Cancelling it kills the process.
+     */
+    CompletableFuture<Integer> drain(Process process, ProgressTracker tracker, long timeout) {
+        return drain(process, process.getInputStream(), tracker, timeout);
+    }
+
+    /**
+     * Start reading one of a process's output streams, for when the other is
+     * being read by someone else.
+     *
+     * @param process
+     * @param in stdout or stderr of the process
+     * @param tracker where to send progress, or null to log the output
+     * @param timeout milliseconds before the process is killed, zero or less
+     * for no limit
+     * @return completes with the exit code once the process has finished and
+     * <code>in</code> has been read. Cancelling it kills the process.
+     */
+    CompletableFuture<Integer> drain(Process process, InputStream in, ProgressTracker tracker, long timeout) {
+        Drain d = new Drain(process, in, tracker, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout), timeout);
+        added.add(d);
+        synchronized (wake) {
+            wake.notify();
+        }
+        return d.exit;
+    }
+
+    private void run() {
+        List<Drain> active = new ArrayList<>();
+        byte[] buffer = new byte[64 * 1024];
+        long idle = MIN_IDLE_MS;
+        while (true) {
+            try {
+                Drain d;
+                while ((d = added.poll()) != null) {
+                    active.add(d);
+                    idle = MIN_IDLE_MS;
+                }
+                if (active.isEmpty()) {
+                    synchronized (wake) {
+                        if (added.isEmpty()) {
+                            wake.wait();
+                        }
+                    }
+                    continue;
+                }
+
+                boolean busy = false;
+                long now = System.nanoTime();
+                for (Iterator<Drain> it = active.iterator(); it.hasNext();) {
+                    d = it.next();
+                    try {
+                        if (d.exit.isDone()) {
+                            // Cancelled
+                            d.process.destroyForcibly();
+                            it.remove();
+                        } else if (d.timeout > 0 && now - d.deadline > 0) {
+                            d.process.destroyForcibly();
+                            d.exit.completeExceptionally(new IOException("ffmpeg killed after " + d.timeout + "ms"));
+                            it.remove();
+                        } else {
+                            int read = d.pump(buffer);
+                            if (read > 0) {
+                                busy = true;
+                            } else if (read < 0) {
+                                d.finish();
+                                it.remove();
+                            }
+                        }
+                    } catch (IOException | RuntimeException ex) {
+                        d.process.destroyForcibly();
+                        d.exit.completeExceptionally(ex);
+                        it.remove();
+                    }
+                }
+                if (busy) {
+                    idle = MIN_IDLE_MS;
+                } else {
+                    synchronized (wake) {
+                        if (added.isEmpty()) {
+                            wake.wait(idle);
+                        }
+                    }
+                    idle = Math.min(idle * 2, MAX_IDLE_MS);
+                }
+            } catch (InterruptedException ex) {
+                log.warn("Interrupted, but there's no one else to read process output");
+            } catch (RuntimeException ex) {
+                log.error("Unexpected error draining processes", ex);
+            }
+        }
+    }
+
+    private static class Drain {
+
+        private final Process process;
+        private final InputStream in;
+        private final ProgressTracker tracker;
+        // System.nanoTime(), only meaningful if there's a timeout
+        private final long deadline;
+        private final long timeout;
+        private final CompletableFuture<Integer> exit = new CompletableFuture<>();
+        private final StringBuilder line = new StringBuilder();
+
+        Drain(Process process, InputStream in, ProgressTracker tracker, long deadline, long timeout) {
+            this.process = process;
+            this.in = in;
+            this.tracker = tracker;
+            this.deadline = deadline;
+            this.timeout = timeout;
+        }
+
+        /**
+         * Read whatever is there without blocking.
+         *
+         * @return bytes read, or -1 once the process has exited and its
+         * output is used up
+         */
+        int pump(byte[] buffer) throws IOException {
+            int available = in.available();
+            if (available == 0) {
+                if (process.isAlive()) {
+                    return 0;
+                }
+                // Nothing can write to the pipe now, so this won't block
+                available = buffer.length;
+            }
+            int read = in.read(buffer, 0, Math.min(available, buffer.length));
+            if (read > 0) {
+                if (tracker != null) {
+                    tracker.feed(buffer, 0, read);
+                } else {
+                    log(buffer, read);
+                }
+            }
+            return read;
+        }
+
+        void finish() throws IOException {
+            in.close();
+            if (tracker != null) {
+                tracker.finish();
+            } else if (line.length() > 0) {
+                log.debug("Process output: {}", line);
+            }
+            exit.complete(process.exitValue());
+        }
+
+        private void log(byte[] buffer, int length) {
+            for (int i = 0; i < length; i += 1) {
+                char c = (char) (buffer[i] & 0xff);
+                if (c == '\n') {
+                    log.debug("Process output: {}", line);
+                    line.setLength(0);
+                } else if (c != '\r') {
+                    line.append(c);
+                }
+            }
+        }
+    }
+}
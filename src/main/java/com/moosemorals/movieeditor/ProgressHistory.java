@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * How long each {@link ProgressMonitor.Stage} has taken in past runs, in
+ * milliseconds of wall time per millisecond of video. Kept in a properties
+ * file in the temp dir, so estimates follow the machine and the disks the
+ * runs use.
+ * <p>
+ * Each run moves a stage's cost part of the way towards what it measured, so
+ * a one-off slow run doesn't throw the next estimate off too far. The file is
+ * read again before every update, so jobs in the same JVM don't lose each
+ * other's updates. Jobs in other processes can.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ProgressHistory {
+
+    public static final String FILE = "progress-history.properties";
+
+    /**
+     * Weight of the newest run in each cost.
+     */
+    static final double ALPHA = 0.3;
+
+    private static final Logger log = LoggerFactory.getLogger(ProgressHistory.class);
+    private static final Object lock = new Object();
+
+    private final File file;
+    private final double[] costs = new double[ProgressMonitor.Stage.values().length];
+
+    private ProgressHistory(File file) {
+        this.file = file;
+        for (ProgressMonitor.Stage stage : ProgressMonitor.Stage.values()) {
+            costs[stage.ordinal()] = stage.getDefaultCost();
+        }
+    }
+
+    /**
+     * The history in the config's temp dir, or the defaults if it hasn't
+     * been written yet.
+     *
+     * @param config
+     * @return
+     */
+    public static ProgressHistory load(Config config) {
+        ProgressHistory history = new ProgressHistory(config.getTempDir() != null ? new File(config.getTempDir(), FILE) : null);
+        synchronized (lock) {
+            history.read();
+        }
+        return history;
+    }
+
+    /**
+     * Default costs, that nothing is saved to.
+     *
+     * @return
+     */
+    public static ProgressHistory defaults() {
+        return new ProgressHistory(null);
+    }
+
+    /**
+     * @param stage
+     * @return wall time milliseconds per millisecond of video
+     */
+    public double getCost(ProgressMonitor.Stage stage) {
+        return costs[stage.ordinal()];
+    }
+
+    /**
+     * Fold a finished stage into its cost, and save.
+     *
+     * @param stage
+     * @param wallMillis how long the stage took
+     * @param mediaMillis how much video it processed
+     */
+    void record(ProgressMonitor.Stage stage, long wallMillis, double mediaMillis) {
+        if (file == null || wallMillis <= 0 || mediaMillis <= 0) {
+            return;
+        }
+        synchronized (lock) {
+            read();
+            double measured = wallMillis / mediaMillis;
+            int i = stage.ordinal();
+            costs[i] = costs[i] + ALPHA * (measured - costs[i]);
+            log.debug("{} took {}ms for {}ms of video, cost now {}", stage, wallMillis, (long) mediaMillis, costs[i]);
+            try {
+                write();
+            } catch (IOException ex) {
+                log.warn("Can't save progress history to {}: {}", file, ex.getMessage());
+            }
+        }
+    }
+
+    private void read() {
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            p.load(in);
+        } catch (IOException ex) {
+            log.warn("Can't read progress history from {}: {}", file, ex.getMessage());
+            return;
+        }
+        for (ProgressMonitor.Stage stage : ProgressMonitor.Stage.values()) {
+            String value = p.getProperty(stage.name().toLowerCase());
+            if (value != null) {
+                try {
+                    double cost = Double.parseDouble(value);
+                    if (cost > 0) {
+                        costs[stage.ordinal()] = cost;
+                    }
+                } catch (NumberFormatException ex) {
+                    log.warn("Ignoring bad cost {} for {} in {}", value, stage, file);
+                }
+            }
+        }
+    }
+
+    private void write() throws IOException {
+        Properties p = new Properties();
+        for (ProgressMonitor.Stage stage : ProgressMonitor.Stage.values()) {
+            p.setProperty(stage.name().toLowerCase(), Double.toString(costs[stage.ordinal()]));
+        }
+        File temp = File.createTempFile(FILE, ".tmp", file.getParentFile());
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                p.store(out, "Wall time ms per ms of video, for each stage");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+}
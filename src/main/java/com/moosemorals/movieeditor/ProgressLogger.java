@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs progress every so often, for runs without a window to show it in.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ProgressLogger implements ProgressMonitor.Listener {
+
+    public static final long LOG_INTERVAL_MS = 5000;
+
+    private final Logger log = LoggerFactory.getLogger(ProgressLogger.class);
+
+    private long lastLogged;
+    private int lastValue = -1;
+
+    /**
+     * Only ever called on the monitor's publisher thread, so needs no locks.
+     */
+    @Override
+    public void progressChanged(ProgressMonitor monitor) {
+        long now = System.currentTimeMillis();
+        int value = monitor.getValue();
+        if (value == lastValue || (value < 100 && now - lastLogged < LOG_INTERVAL_MS)) {
+            return;
+        }
+        lastLogged = now;
+        lastValue = value;
+        long eta = monitor.getEtaMillis() / 1000;
+        log.info(String.format("%d%% done, %d:%02d:%02d left, %.1f MB/s",
+                value, eta / 3600, (eta / 60) % 60, eta % 60,
+                monitor.getCurrentBytesPerSecond() / (1024 * 1024)));
+    }
+}
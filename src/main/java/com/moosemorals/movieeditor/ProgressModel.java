@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.BoundedRangeModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Shows a {@link ProgressMonitor} as a read only 0 to 100 range, for a
+ * progress bar. Change events are passed to the event dispatch thread, with
+ * never more than one waiting there, however often the monitor publishes.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ProgressModel implements BoundedRangeModel, ProgressMonitor.Listener {
+
+    private final ProgressMonitor monitor;
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final ChangeEvent changeEvent = new ChangeEvent(this);
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    public ProgressModel(ProgressMonitor monitor) {
+        this.monitor = monitor;
+        monitor.addListener(this);
+    }
+
+    public ProgressMonitor getMonitor() {
+        return monitor;
+    }
+
+    @Override
+    public void progressChanged(ProgressMonitor monitor) {
+        if (pending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::fireStateChanged);
+        }
+    }
+
+    /**
+     * Runs on the EDT.
+     */
+    private void fireStateChanged() {
+        // Clear first, so a change while listeners run queues another event
+        pending.set(false);
+        for (ChangeListener x : changeListeners) {
+            x.stateChanged(changeEvent);
+        }
+    }
+
+    @Override
+    public int getMinimum() {
+        return 0;
+    }
+
+    @Override
+    public void setMinimum(int newMinimum) {
+        throw new UnsupportedOperationException("Progress is read only");
+    }
+
+    @Override
+    public int getMaximum() {
+        return 100;
+    }
+
+    @Override
+    public void setMaximum(int newMaximum) {
+        throw new UnsupportedOperationException("Progress is read only");
+    }
+
+    @Override
+    public int getValue() {
+        return monitor.getValue();
+    }
+
+    @Override
+    public void setValue(int newValue) {
+        throw new UnsupportedOperationException("Progress is read only");
+    }
+
+    @Override
+    public void setValueIsAdjusting(boolean b) {
+        throw new UnsupportedOperationException("Progress is read only");
+    }
+
+    @Override
+    public boolean getValueIsAdjusting() {
+        return false;
+    }
+
+    @Override
+    public int getExtent() {
+        return 0;
+    }
+
+    @Override
+    public void setExtent(int newExtent) {
+        // Progress bars set this, and it's always zero
+    }
+
+    @Override
+    public void setRangeProperties(int value, int extent, int min, int max, boolean adjusting) {
+        throw new UnsupportedOperationException("Progress is read only");
+    }
+
+    @Override
+    public void addChangeListener(ChangeListener x) {
+        changeListeners.add(x);
+    }
+
+    @Override
+    public void removeChangeListener(ChangeListener x) {
+        changeListeners.remove(x);
+    }
+}
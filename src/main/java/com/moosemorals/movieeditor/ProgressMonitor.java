@@ -23,127 +23,412 @@
  */
 package com.moosemorals.movieeditor;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import javax.swing.BoundedRangeModel;
-import javax.swing.SwingUtilities;
-import javax.swing.event.ChangeEvent;
-import javax.swing.event.ChangeListener;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Overall progress of a run, updated from any number of threads at once.
+ *
+ * Progress is counted in milliseconds of video done in each {@link Stage},
+ * and each stage is weighted by its cost from {@link ProgressHistory}. So a
+ * long segment counts for more than a short one, and the join counts for as
+ * much as it usually takes. When the run finishes, the time each stage took
+ * goes back into the history.
+ *
+ * Updates go into lock free accumulators. Listeners are told about them at
+ * most every {@link #PUBLISH_INTERVAL_MS}, on a shared publishing thread, and
+ * there is never more than one notification waiting, however fast updates
+ * come in. Nothing here touches Swing: {@link ProgressModel} shows a monitor
+ * in a progress bar.
  *
  * @author Osric Wilkinson <osric@fluffypeople.com>
  */
-public class ProgressMonitor implements BoundedRangeModel {
+public class ProgressMonitor {
+
+    /**
+     * Told when progress has changed.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the monitor's publishing thread, so it should be quick.
+         *
+         * @param monitor
+         */
+        void progressChanged(ProgressMonitor monitor);
+    }
+
+    /**
+     * The parts of a run, in order.
+     */
+    public enum Stage {
+        /**
+         * Cutting every segment into a part, as much of it at once as the
+         * config allows.
+         */
+        CUT(0.02),
+        /**
+         * Joining the parts into the output.
+         */
+        JOIN(0.02);
+
+        private final double defaultCost;
+
+        private Stage(double defaultCost) {
+            this.defaultCost = defaultCost;
+        }
+
+        /**
+         * Cost to assume with no history.
+         *
+         * @return wall time milliseconds per millisecond of video
+         */
+        public double getDefaultCost() {
+            return defaultCost;
+        }
+    }
+
+    public static final long PUBLISH_INTERVAL_MS = 100;
+
+    /**
+     * Shortest time over which {@link #getCurrentBytesPerSecond()} is
+     * measured.
+     */
+    public static final long RATE_WINDOW_MS = 2000;
+
+    private static final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ProgressMonitor");
+        t.setDaemon(true);
+        return t;
+    });
 
     private final Logger log = LoggerFactory.getLogger(ProgressMonitor.class);
 
-    private final float totalPercent;
-    private final Set<ChangeListener> changeListeners;
-    private float currentPercent = 0;
-    private int fileCount = 0;
+    private final ProgressHistory history;
+    private final int segments;
+    private final double[] totalMillis = new double[Stage.values().length];
+    private final double[] costs = new double[Stage.values().length];
+    private final double totalWork;
+    private final DoubleAdder[] doneMillis = new DoubleAdder[Stage.values().length];
+    private final DoubleAdder[] skippedMillis = new DoubleAdder[Stage.values().length];
+    private final long startedAt = System.currentTimeMillis();
+    private final AtomicLong cutFinishedAt = new AtomicLong();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder fileCount = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final AtomicLong firstBytesAt = new AtomicLong();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private volatile long lastPublished = 0;
+    private volatile double speed = -1;
+    private volatile double fps = -1;
+    private volatile double bitrate = -1;
+    private long rateSampledAt;
+    private long rateSampleBytes;
+    private double currentRate;
 
+    /**
+     * A monitor with default stage costs, that doesn't learn from the run.
+     *
+     * @param pairs
+     */
     public ProgressMonitor(List<TimingPair> pairs) {
-        changeListeners = new HashSet<>();
-        totalPercent = pairs.size() + 1;
-        log.debug("Total percent {}", totalPercent);
+        this(pairs, ProgressHistory.defaults());
     }
 
-    public void addDuration(float percent) {
-        currentPercent += percent;
-        log.debug("Total {} current {} adding {}", totalPercent, currentPercent, percent);
-        notifyListeners();
+    /**
+     * @param pairs segments the run will cut
+     * @param history costs to weight the stages by, and where to record how
+     * this run went
+     */
+    public ProgressMonitor(List<TimingPair> pairs, ProgressHistory history) {
+        this.history = history;
+        segments = pairs.size();
+        long length = 0;
+        for (TimingPair pair : pairs) {
+            length += pair.getDurationMillis();
+        }
+        double work = 0;
+        for (Stage stage : Stage.values()) {
+            int i = stage.ordinal();
+            // Every stage works through the whole length, once
+            totalMillis[i] = length;
+            costs[i] = history.getCost(stage);
+            doneMillis[i] = new DoubleAdder();
+            skippedMillis[i] = new DoubleAdder();
+            work += costs[i] * length;
+        }
+        totalWork = work;
+        log.debug("Expecting {}ms of work", (long) totalWork);
     }
 
-    public void fileCompleted() {
-        fileCount += 1;
-        currentPercent = fileCount;
+    /**
+     * Add progress through a stage.
+     *
+     * @param stage
+     * @param millis milliseconds of video done since the last call
+     */
+    public void addProgress(Stage stage, double millis) {
+        doneMillis[stage.ordinal()].add(millis);
         notifyListeners();
     }
 
-    @Override
-    public int getMinimum() {
-        return 0;
+    /**
+     * Add progress through a stage that didn't need doing, such as a segment
+     * whose part was already cut. It counts towards progress, but not
+     * towards the stage's cost.
+     *
+     * @param stage
+     * @param millis milliseconds of video
+     */
+    public void skip(Stage stage, double millis) {
+        skippedMillis[stage.ordinal()].add(millis);
+        addProgress(stage, millis);
     }
 
-    @Override
-    public void setMinimum(int newMinimum) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * @param stage
+     * @return milliseconds of video in the stage
+     */
+    public double getTotalMillis(Stage stage) {
+        return totalMillis[stage.ordinal()];
     }
 
-    @Override
-    public int getMaximum() {
-        return 100;
+    /**
+     * @param stage
+     * @return milliseconds of video done in the stage so far
+     */
+    public double getDoneMillis(Stage stage) {
+        return doneMillis[stage.ordinal()].sum();
     }
 
-    @Override
-    public void setMaximum(int newMaximum) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * Count bytes written to output.
+     *
+     * @param bytes
+     */
+    public void addBytes(long bytes) {
+        if (firstBytesAt.get() == 0) {
+            firstBytesAt.compareAndSet(0, System.currentTimeMillis());
+        }
+        bytesWritten.add(bytes);
+        Metrics.BYTES_WRITTEN.add(bytes);
     }
 
-    @Override
-    public int getValue() {
-        return Math.round(currentPercent * 100 / totalPercent);
+    /**
+     * Take back bytes counted by {@link #addBytes(long)} for output that's
+     * been thrown away and will be written again. The metrics still count
+     * them, since they were written.
+     *
+     * @param bytes
+     */
+    public void discardBytes(long bytes) {
+        bytesWritten.add(-bytes);
     }
 
-    @Override
-    public void setValue(int newValue) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * Keep the latest rates that ffmpeg reported.
+     *
+     * @param record
+     */
+    public void updateStats(ProgressRecord record) {
+        if (record.getSpeed() >= 0) {
+            speed = record.getSpeed();
+            Metrics.SPEED.set(speed);
+        }
+        if (record.getFps() >= 0) {
+            fps = record.getFps();
+        }
+        if (record.getBitrate() >= 0) {
+            bitrate = record.getBitrate();
+        }
     }
 
-    @Override
-    public void setValueIsAdjusting(boolean b) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    public long getBytesWritten() {
+        return bytesWritten.sum();
     }
 
-    @Override
-    public boolean getValueIsAdjusting() {
-        return false;
+    /**
+     * Average output rate since the first bytes were written.
+     *
+     * @return bytes per second
+     */
+    public double getBytesPerSecond() {
+        long start = firstBytesAt.get();
+        long elapsed = System.currentTimeMillis() - start;
+        if (start == 0 || elapsed <= 0) {
+            return 0;
+        }
+        return bytesWritten.sum() * 1000.0 / elapsed;
     }
 
-    @Override
-    public int getExtent() {
-        return 0;
+    /**
+     * Last processing speed reported by ffmpeg, as a multiple of real time.
+     *
+     * @return the speed, or -1 if none has been reported
+     */
+    public double getSpeed() {
+        return speed;
     }
 
-    @Override
-    public void setExtent(int newExtent) {
-        log.debug("Set extent: {}", newExtent);
+    public double getFps() {
+        return fps;
     }
 
-    @Override
-    public void setRangeProperties(int value, int extent, int min, int max, boolean adjusting) {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    /**
+     * Last output bitrate reported by ffmpeg.
+     *
+     * @return kbits/s, or -1 if none has been reported
+     */
+    public double getBitrate() {
+        return bitrate;
     }
 
-    @Override
-    public void addChangeListener(ChangeListener x) {
-        synchronized (changeListeners) {
-            log.debug("Adding change listener");
-            changeListeners.add(x);
+    /**
+     * Output rate over the last {@link #RATE_WINDOW_MS} or so.
+     *
+     * @return bytes per second
+     */
+    public synchronized double getCurrentBytesPerSecond() {
+        long now = System.currentTimeMillis();
+        long bytes = bytesWritten.sum();
+        if (rateSampledAt == 0) {
+            rateSampledAt = now;
+            rateSampleBytes = bytes;
+            currentRate = getBytesPerSecond();
+        } else if (now - rateSampledAt >= RATE_WINDOW_MS) {
+            currentRate = (bytes - rateSampleBytes) * 1000.0 / (now - rateSampledAt);
+            rateSampledAt = now;
+            rateSampleBytes = bytes;
         }
+        return currentRate;
     }
 
-    @Override
-    public void removeChangeListener(ChangeListener x) {
-        synchronized (changeListeners) {
-            log.debug("Removing change listener");
-            changeListeners.remove(x);
+    /**
+     * Count a finished file: each segment's part, then the output. Callers
+     * should have added all of its progress first. The last one records the
+     * run in the history.
+     */
+    public void fileCompleted() {
+        fileCount.increment();
+        int count = fileCount.intValue();
+        if (count == segments) {
+            cutFinishedAt.compareAndSet(0, System.currentTimeMillis());
+        } else if (count == segments + 1) {
+            long now = System.currentTimeMillis();
+            cutFinishedAt.compareAndSet(0, now);
+            long cutAt = cutFinishedAt.get();
+            record(Stage.CUT, cutAt - startedAt);
+            record(Stage.JOIN, now - cutAt);
         }
+        notifyListeners();
+    }
+
+    private void record(Stage stage, long wallMillis) {
+        int i = stage.ordinal();
+        history.record(stage, wallMillis, totalMillis[i] - skippedMillis[i].sum());
+    }
+
+    /**
+     * Fraction of the run done, with each stage weighted by its cost.
+     *
+     * @return
+     */
+    public double getFraction() {
+        if (totalWork <= 0) {
+            return fileCount.intValue() > segments ? 1 : 0;
+        }
+        double done = 0;
+        for (int i = 0; i < costs.length; i += 1) {
+            done += costs[i] * Math.max(0, Math.min(totalMillis[i], doneMillis[i].sum()));
+        }
+        return done / totalWork;
+    }
+
+    /**
+     * Time left, from the stage costs at first, and more and more from how
+     * fast the run is actually going as it goes.
+     *
+     * @return milliseconds
+     */
+    public long getEtaMillis() {
+        double fraction = getFraction();
+        if (fraction >= 1) {
+            return 0;
+        }
+        double predicted = (1 - fraction) * totalWork;
+        long elapsed = System.currentTimeMillis() - startedAt;
+        if (fraction <= 0 || elapsed <= 0) {
+            return (long) predicted;
+        }
+        double observed = elapsed * (1 - fraction) / fraction;
+        return (long) (fraction * observed + (1 - fraction) * predicted);
+    }
+
+    public int getFilesCompleted() {
+        return fileCount.intValue();
     }
 
+    /**
+     * Percentage done, from 0 to 100.
+     *
+     * @return
+     */
+    public int getValue() {
+        return Math.min(100, (int) Math.round(getFraction() * 100));
+    }
+
+    public void addListener(Listener x) {
+        log.debug("Adding listener");
+        listeners.add(x);
+    }
+
+    public void removeListener(Listener x) {
+        log.debug("Removing listener");
+        listeners.remove(x);
+    }
+
+    /**
+     * Note that something changed, and make sure a notification is on its way.
+     * Only the thread that wins the race to set <code>pending</code> schedules
+     * one, no sooner than the interval after the last.
+     */
     private void notifyListeners() {
-        ChangeEvent e = new ChangeEvent(this);
-        SwingUtilities.invokeLater(() -> {
-            synchronized (changeListeners) {
-                for (ChangeListener x : changeListeners) {
-                    x.stateChanged(e);
-                }
+        dirty.set(true);
+        if (listeners.isEmpty() || !pending.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = Math.max(0, lastPublished + PUBLISH_INTERVAL_MS - System.currentTimeMillis());
+        publisher.schedule(this::publish, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on the publisher thread.
+     */
+    private void publish() {
+        dirty.set(false);
+        lastPublished = System.currentTimeMillis();
+        for (Listener x : listeners) {
+            try {
+                x.progressChanged(this);
+            } catch (RuntimeException ex) {
+                log.warn("Progress listener failed", ex);
             }
-        });
+        }
+        pending.set(false);
+        // Catch anything that changed while listeners were running
+        if (dirty.get()) {
+            notifyListeners();
+        }
     }
 
 }
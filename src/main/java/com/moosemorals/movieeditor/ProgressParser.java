@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses ffmpeg <code>-progress</code> output a byte at a time, without
+ * allocating anything per line. Keys are matched against the ones we care
+ * about as they're read, and values are read straight into numbers (any unit
+ * suffix, like <code>kbits/s</code> or <code>x</code>, is ignored). When the
+ * <code>progress=</code> line that ends each block is seen the record is
+ * passed to the listener and then reused.
+ *
+ * Lines that can't be parsed are skipped. Instances are not thread safe.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ProgressParser {
+
+    public interface Listener {
+
+        void progress(ProgressRecord record);
+    }
+
+    private static final int MAX_KEY = 32;
+
+    private static final int KEY_UNKNOWN = 0;
+    private static final int KEY_FRAME = 1;
+    private static final int KEY_FPS = 2;
+    private static final int KEY_BITRATE = 3;
+    private static final int KEY_TOTAL_SIZE = 4;
+    private static final int KEY_OUT_TIME_US = 5;
+    private static final int KEY_OUT_TIME_MS = 6;
+    private static final int KEY_SPEED = 7;
+    private static final int KEY_PROGRESS = 8;
+
+    private static final byte[][] KEYS = {
+        null,
+        ascii("frame"),
+        ascii("fps"),
+        ascii("bitrate"),
+        ascii("total_size"),
+        ascii("out_time_us"),
+        // Despite the name, this is in microseconds too
+        ascii("out_time_ms"),
+        ascii("speed"),
+        ascii("progress")
+    };
+
+    private final Listener listener;
+    private final ProgressRecord record = new ProgressRecord();
+    private final byte[] key = new byte[MAX_KEY];
+
+    private int keyLength = 0;
+    private boolean inValue = false;
+    private boolean skipLine = false;
+    private int keyId;
+
+    private boolean valid;
+    private boolean numberDone;
+    private boolean seenDigit;
+    private long mantissa;
+    private long scale;
+    private byte firstValueByte;
+
+    public ProgressParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void feed(byte[] buffer, int offset, int length) {
+        for (int i = offset; i < offset + length; i += 1) {
+            feed(buffer[i]);
+        }
+    }
+
+    public void feed(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            feed(buffer.get());
+        }
+    }
+
+    /**
+     * Handle a final line that didn't end with a new line.
+     */
+    public void finish() {
+        if (keyLength > 0 || inValue) {
+            endLine();
+        }
+    }
+
+    private void feed(byte b) {
+        if (b == '\n') {
+            endLine();
+        } else if (b == '\r' || skipLine) {
+            // ignore
+        } else if (!inValue) {
+            if (b == '=') {
+                keyId = matchKey();
+                inValue = true;
+                startValue();
+            } else if (keyLength < MAX_KEY) {
+                key[keyLength++] = b;
+            } else {
+                skipLine = true;
+            }
+        } else if (keyId != KEY_UNKNOWN) {
+            readValue(b);
+        }
+    }
+
+    private void startValue() {
+        valid = false;
+        numberDone = false;
+        seenDigit = false;
+        mantissa = 0;
+        scale = 0;
+        firstValueByte = 0;
+    }
+
+    private void readValue(byte b) {
+        if (firstValueByte == 0) {
+            firstValueByte = b;
+        }
+        if (numberDone) {
+            return;
+        }
+        if (b >= '0' && b <= '9') {
+            if (mantissa < Long.MAX_VALUE / 10) {
+                mantissa = mantissa * 10 + (b - '0');
+                if (scale > 0) {
+                    scale *= 10;
+                }
+            }
+            seenDigit = true;
+            valid = true;
+        } else if (b == '.' && scale == 0 && seenDigit) {
+            scale = 1;
+        } else if (b == ' ' && !seenDigit) {
+            // ffmpeg pads some values
+        } else {
+            numberDone = true;
+        }
+    }
+
+    private void endLine() {
+        if (inValue && !skipLine) {
+            store();
+        }
+        keyLength = 0;
+        inValue = false;
+        skipLine = false;
+        keyId = KEY_UNKNOWN;
+    }
+
+    private void store() {
+        switch (keyId) {
+            case KEY_FRAME:
+                record.frame = longValue();
+                break;
+            case KEY_FPS:
+                record.fps = doubleValue();
+                break;
+            case KEY_BITRATE:
+                record.bitrate = doubleValue();
+                break;
+            case KEY_TOTAL_SIZE:
+                record.totalSize = longValue();
+                break;
+            case KEY_OUT_TIME_US:
+            case KEY_OUT_TIME_MS:
+                record.outTimeUs = longValue();
+                break;
+            case KEY_SPEED:
+                record.speed = doubleValue();
+                break;
+            case KEY_PROGRESS:
+                record.end = firstValueByte == 'e';
+                listener.progress(record);
+                record.clear();
+                break;
+        }
+    }
+
+    private long longValue() {
+        if (!valid) {
+            return -1;
+        }
+        return scale > 1 ? mantissa / scale : mantissa;
+    }
+
+    private double doubleValue() {
+        if (!valid) {
+            return -1;
+        }
+        return scale > 1 ? (double) mantissa / scale : mantissa;
+    }
+
+    private int matchKey() {
+        for (int id = 1; id < KEYS.length; id += 1) {
+            byte[] candidate = KEYS[id];
+            if (candidate.length != keyLength) {
+                continue;
+            }
+            boolean match = true;
+            for (int i = 0; i < keyLength && match; i += 1) {
+                match = candidate[i] == key[i];
+            }
+            if (match) {
+                return id;
+            }
+        }
+        return KEY_UNKNOWN;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] result = new byte[s.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) s.charAt(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+/**
+ * One block of ffmpeg <code>-progress</code> output. Instances are reused by
+ * {@link ProgressParser}, so copy anything that needs to be kept. Values that
+ * ffmpeg didn't report (or reported as N/A) are -1.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ProgressRecord {
+
+    long frame;
+    double fps;
+    double bitrate;
+    long totalSize;
+    long outTimeUs;
+    double speed;
+    boolean end;
+
+    public ProgressRecord() {
+        clear();
+    }
+
+    final void clear() {
+        frame = -1;
+        fps = -1;
+        bitrate = -1;
+        totalSize = -1;
+        outTimeUs = -1;
+        speed = -1;
+        end = false;
+    }
+
+    public long getFrame() {
+        return frame;
+    }
+
+    public double getFps() {
+        return fps;
+    }
+
+    /**
+     * Output bitrate in kbits/s.
+     *
+     * @return
+     */
+    public double getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * Bytes written to the output so far.
+     *
+     * @return
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Output timestamp reached, in microseconds.
+     *
+     * @return
+     */
+    public long getOutTimeUs() {
+        return outTimeUs;
+    }
+
+    /**
+     * Processing speed as a multiple of real time.
+     *
+     * @return
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * True for the last record of a run.
+     *
+     * @return
+     */
+    public boolean isEnd() {
+        return end;
+    }
+}
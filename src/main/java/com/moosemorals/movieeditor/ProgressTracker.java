@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns the output that ffmpeg writes with <code>-progress</code> into updates
+ * to a {@link ProgressMonitor}. One tracker follows one ffmpeg run, however
+ * the bytes get here.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ProgressTracker implements ProgressParser.Listener {
+
+    private final Logger log = LoggerFactory.getLogger(ProgressTracker.class);
+
+    private final ProgressMonitor monitor;
+    private final List<TimingPair> timings;
+    private final ProgressParser parser;
+    private final ProgressMonitor.Stage stage;
+    // A single segment reports timestamps from wherever ffmpeg started
+    // so progress is measured from the first one seen. Single pass runs
+    // report positions in the input, which are compared directly
+    // against each segment.
+    private final boolean relative;
+    private final float[] lastPercent;
+    private long outTimeStart = -1;
+    private long lastTotalSize = 0;
+    private boolean seen;
+
+    /**
+     * @param monitor where to send updates
+     * @param timings segments the ffmpeg run is writing
+     */
+    public ProgressTracker(ProgressMonitor monitor, List<TimingPair> timings) {
+        this(monitor, timings, ProgressMonitor.Stage.CUT);
+    }
+
+    /**
+     * @param monitor where to send updates
+     * @param timings what the ffmpeg run is writing
+     * @param stage what part of the run the ffmpeg run is
+     */
+    public ProgressTracker(ProgressMonitor monitor, List<TimingPair> timings, ProgressMonitor.Stage stage) {
+        this.monitor = monitor;
+        this.timings = timings;
+        this.stage = stage;
+        this.relative = timings.size() == 1;
+        this.lastPercent = new float[timings.size()];
+        this.parser = new ProgressParser(this);
+    }
+
+    public void feed(byte[] buffer, int offset, int length) {
+        parser.feed(buffer, offset, length);
+    }
+
+    public void feed(ByteBuffer buffer) {
+        parser.feed(buffer);
+    }
+
+    @Override
+    public void progress(ProgressRecord record) {
+        if (!seen) {
+            // The gap from spawn to here is ffmpeg starting up and seeking
+            seen = true;
+            Tracer.instant("first progress");
+        }
+        if (record.getTotalSize() > lastTotalSize) {
+            monitor.addBytes(record.getTotalSize() - lastTotalSize);
+            lastTotalSize = record.getTotalSize();
+        }
+        monitor.updateStats(record);
+
+        if (record.isEnd()) {
+            log.debug("done");
+        }
+
+        long outTime = record.getOutTimeUs();
+        if (outTime < 0) {
+            return;
+        }
+        if (relative && outTimeStart < 0) {
+            outTimeStart = outTime;
+            return;
+        }
+
+        long position_ms = (outTime - Math.max(0, outTimeStart)) / 1000;
+        for (int i = 0; i < timings.size(); i += 1) {
+            if (lastPercent[i] >= 1) {
+                continue;
+            }
+            TimingPair timing = timings.get(i);
+            long done_ms = relative ? position_ms : position_ms - timing.getStartMillis();
+            if (done_ms <= 0) {
+                continue;
+            }
+            float currentPercent = Math.min(1, (float) done_ms / timing.getDurationMillis()) - lastPercent[i];
+
+            monitor.addProgress(stage, currentPercent * timing.getDurationMillis());
+            lastPercent[i] += currentPercent;
+
+            if (!relative && lastPercent[i] >= 1) {
+                monitor.fileCompleted();
+            }
+        }
+    }
+
+    /**
+     * The run has ended. Any segments that haven't been reported as complete
+     * are now, with whatever was left of their duration.
+     */
+    public void finish() {
+        parser.finish();
+        for (int i = 0; i < timings.size(); i += 1) {
+            if (relative || lastPercent[i] < 1) {
+                if (lastPercent[i] < 1) {
+                    monitor.addProgress(stage, (1 - lastPercent[i]) * timings.get(i).getDurationMillis());
+                    lastPercent[i] = 1;
+                }
+                monitor.fileCompleted();
+            }
+        }
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parts cut by earlier runs, kept under {@link Config#getTempDir()} so they
+ * can be reused, up to a budget of {@link Config#getCacheSize()} bytes.
+ * <p>
+ * Each part is named for a fingerprint of its input (path, size and
+ * modification time, or path and a key from the caller for inputs that are
+ * still growing), the {@link Config.ExtractMode} that cut it, and its start
+ * and duration. Each mode handles timestamps its own way, so a part cut by
+ * one isn't reused by another. Parts are written to a
+ * <code>.partial</code> file and renamed when they're finished, so a part
+ * with its final name is always whole. A part's modification time is when it
+ * was last used, and the least recently used parts are deleted first when
+ * the cache is over budget.
+ * <p>
+ * Several jobs can share the cache. Parts in use by a {@link Session} in this
+ * JVM are never evicted. Eviction takes a lock file, so only one process
+ * evicts at a time, and leaves anything used in the last
+ * {@link #GRACE_MS} alone in case another process is about to read it.
+ * <p>
+ * If the config has a {@link Config#getStagingDir() staging dir}, a second
+ * cache there is tried first for new parts. A part goes there if its size,
+ * estimated from its duration and the input's bitrate, fits in what's left
+ * of {@link Config#getStagingBudget()}, and to the temp dir if not. Staged
+ * parts are dropped once they've been joined, and otherwise kept, like any
+ * other part, for a later run to reuse.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+class SegmentCache {
+
+    static final long GRACE_MS = 10 * 60 * 1000;
+
+    /**
+     * Allowance for parts coming out bigger than the average bitrate says.
+     */
+    static final double STAGING_SLACK = 1.25;
+
+    private static final String DIR = "segments";
+    private static final String LOCK = ".lock";
+    private static final String PART = ".ts";
+    private static final String PARTIAL = ".partial";
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentCache.class);
+    private static final Map<File, SegmentCache> caches = new HashMap<>();
+
+    private final File dir;
+    private final Map<File, Integer> pins = new HashMap<>();
+    private volatile long budget;
+    private volatile SegmentCache staging;
+    // Bytes promised to parts being cut into this cache
+    private long reserved;
+
+    private SegmentCache(File dir, long budget) {
+        this.dir = dir;
+        this.budget = budget;
+    }
+
+    /**
+     * The cache in the config's temp dir. Every caller in the JVM gets the
+     * same instance for the same directory, so they see each other's pins.
+     *
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    static SegmentCache get(Config config) throws IOException {
+        SegmentCache cache = forDir(new File(config.getTempDir(), DIR), config.getCacheSize());
+        SegmentCache staging = null;
+        if (config.getStagingDir() != null && config.getStagingBudget() > 0) {
+            try {
+                staging = forDir(new File(config.getStagingDir(), DIR), config.getStagingBudget());
+            } catch (IOException ex) {
+                log.warn("Can't stage parts in {}, using the temp dir: {}", config.getStagingDir(), ex.getMessage());
+            }
+        }
+        cache.staging = staging;
+        return cache;
+    }
+
+    private static SegmentCache forDir(File dir, long budget) throws IOException {
+        dir = dir.getCanonicalFile();
+        synchronized (caches) {
+            SegmentCache cache = caches.get(dir);
+            if (cache == null) {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Can't create cache directory " + dir);
+                }
+                cache = new SegmentCache(dir, budget);
+                caches.put(dir, cache);
+            } else {
+                cache.budget = budget;
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Start using the cache for parts of <code>input</code>. With a
+     * <code>key</code> the input is known by that rather than its size and
+     * modification time, so parts cut while the input grows are still found
+     * afterwards.
+     *
+     * @param input
+     * @param key null to go by size and modification time
+     * @param mode how the parts are cut
+     * @return
+     * @throws IOException
+     */
+    Session open(File input, String key, Config.ExtractMode mode) throws IOException {
+        String fingerprint = key == null ? fingerprint(input) : fingerprint(input, key);
+        return new Session(input, fingerprint + "-" + mode.name().toLowerCase(Locale.ROOT), staging);
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * Promise room for a part, if the finished parts already here and those
+     * promised so far leave enough of the budget.
+     *
+     * @param bytes
+     * @return false if there isn't room
+     */
+    private synchronized boolean reserve(long bytes) {
+        long used = reserved;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(PART)) {
+                    used += f.length();
+                }
+            }
+        }
+        if (used + bytes > budget || dir.getUsableSpace() < bytes) {
+            return false;
+        }
+        reserved += bytes;
+        return true;
+    }
+
+    private synchronized void unreserve(long bytes) {
+        reserved -= bytes;
+    }
+
+    /**
+     * Delete least recently used parts until the cache is within budget, and
+     * partial files left by runs that died.
+     *
+     * @throws IOException
+     */
+    synchronized void evict() throws IOException {
+        if (budget <= 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(new File(dir, LOCK).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Released when the channel is closed
+            channel.lock();
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            long cutoff = System.currentTimeMillis() - GRACE_MS;
+            long total = 0;
+            List<File> parts = new ArrayList<>(files.length);
+            for (File f : files) {
+                String name = f.getName();
+                if (name.endsWith(PART)) {
+                    total += f.length();
+                    parts.add(f);
+                } else if (name.endsWith(PARTIAL) && f.lastModified() < cutoff) {
+                    f.delete();
+                }
+            }
+            if (total <= budget) {
+                return;
+            }
+
+            File[] oldest = parts.toArray(new File[parts.size()]);
+            long[] used = new long[oldest.length];
+            for (int i = 0; i < oldest.length; i += 1) {
+                used[i] = oldest[i].lastModified();
+            }
+            Integer[] order = new Integer[oldest.length];
+            for (int i = 0; i < order.length; i += 1) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(used[a], used[b]));
+
+            long freed = 0;
+            int deleted = 0;
+            for (int i = 0; i < order.length && total > budget; i += 1) {
+                File f = oldest[order[i]];
+                if (used[order[i]] >= cutoff || isPinned(f)) {
+                    continue;
+                }
+                long size = f.length();
+                if (f.delete()) {
+                    total -= size;
+                    freed += size;
+                    deleted += 1;
+                }
+            }
+            if (deleted > 0) {
+                log.info("Evicted {} parts ({} bytes), cache now {} bytes of {}", deleted, freed, total, budget);
+            } else {
+                log.debug("Cache is {} bytes over budget, but every part is in use", total - budget);
+            }
+        }
+    }
+
+    private synchronized void pin(File part) {
+        pins.merge(part, 1, Integer::sum);
+    }
+
+    private synchronized void unpin(File part) {
+        pins.computeIfPresent(part, (k, v) -> v == 1 ? null : v - 1);
+    }
+
+    private synchronized boolean isPinned(File part) {
+        return pins.containsKey(part);
+    }
+
+    /**
+     * Delete a part, unless it's pinned more than <code>count</code> times,
+     * in which case some other session still needs it.
+     */
+    private synchronized void deleteIfOnlyPinned(File part, int count) {
+        Integer current = pins.get(part);
+        if (current != null && current == count) {
+            part.delete();
+        }
+    }
+
+    /**
+     * Name for an input that changes if the file is moved, grows or is
+     * rewritten.
+     */
+    static String fingerprint(File input) throws IOException {
+        return fingerprint(input, input.length() + "\n" + input.lastModified());
+    }
+
+    /**
+     * Name for an input that changes if the file is moved or the key
+     * changes.
+     */
+    static String fingerprint(File input, String key) throws IOException {
+        String id = input.getCanonicalPath() + "\n" + key;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(id.getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder(16);
+            for (int i = 0; i < 8; i += 1) {
+                result.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("No SHA-1", ex);
+        }
+    }
+
+    /**
+     * One job's use of the cache, for one input. Parts it finds or adds stay
+     * pinned until it's closed.
+     */
+    class Session implements Closeable {
+
+        private final File input;
+        private final String fingerprint;
+        private final SegmentCache staging;
+        private final List<File> pinned = new ArrayList<>();
+        private final Map<File, Long> reservations = new HashMap<>();
+        // Zero until estimated, negative if it can't be
+        private volatile double bytesPerMs;
+
+        private Session(File input, String fingerprint, SegmentCache staging) {
+            this.input = input;
+            this.fingerprint = fingerprint;
+            this.staging = staging;
+        }
+
+        /**
+         * Where the finished part for <code>pair</code> lives, staged if
+         * there's a staged copy.
+         *
+         * @param pair
+         * @return
+         */
+        File partFile(TimingPair pair) {
+            if (staging != null) {
+                File staged = new File(staging.dir, name(pair) + PART);
+                if (staged.isFile()) {
+                    return staged;
+                }
+            }
+            return new File(dir, name(pair) + PART);
+        }
+
+        /**
+         * Look for a finished part for <code>pair</code>, and if there is one
+         * mark it used and pin it.
+         *
+         * @param pair
+         * @return true if there's a part
+         */
+        boolean lookup(TimingPair pair) {
+            return (staging != null && use(new File(staging.dir, name(pair) + PART)))
+                    || use(new File(dir, name(pair) + PART));
+        }
+
+        private boolean use(File part) {
+            SegmentCache owner = owner(part);
+            owner.pin(part);
+            // Touch first, so another process evicting sees it as in use
+            if (part.setLastModified(System.currentTimeMillis()) && part.isFile()) {
+                synchronized (pinned) {
+                    pinned.add(part);
+                }
+                return true;
+            }
+            owner.unpin(part);
+            return false;
+        }
+
+        /**
+         * A new file to cut <code>pair</code> into. Each call gets a
+         * different file, so two jobs cutting the same segment don't write
+         * over each other.
+         *
+         * @param pair
+         * @return
+         * @throws IOException
+         */
+        File partialFile(TimingPair pair) throws IOException {
+            if (staging != null) {
+                long estimate = estimate(pair);
+                if (estimate > 0 && staging.reserve(estimate)) {
+                    File partial;
+                    try {
+                        partial = File.createTempFile(name(pair) + "-", PARTIAL, staging.dir);
+                    } catch (IOException ex) {
+                        staging.unreserve(estimate);
+                        throw ex;
+                    }
+                    synchronized (reservations) {
+                        reservations.put(partial, estimate);
+                    }
+                    log.debug("Staging {} ({} bytes estimated)", pair, estimate);
+                    return partial;
+                }
+            }
+            return File.createTempFile(name(pair) + "-", PARTIAL, dir);
+        }
+
+        /**
+         * @return bytes, or -1 if the input's bitrate isn't known
+         */
+        private long estimate(TimingPair pair) {
+            if (bytesPerMs == 0) {
+                double rate = CutListOptimizer.estimateBytesPerMs(input.getPath());
+                bytesPerMs = rate > 0 ? rate : -1;
+            }
+            return bytesPerMs > 0 ? (long) (pair.getDurationMillis() * bytesPerMs * STAGING_SLACK) : -1;
+        }
+
+        /**
+         * Move a finished part into the cache, and pin it.
+         *
+         * @param pair
+         * @param partial the file it was cut into
+         * @throws IOException
+         */
+        void commit(TimingPair pair, File partial) throws IOException {
+            // Finished parts stay in whichever cache they were cut in
+            File part = new File(partial.getParentFile(), name(pair) + PART);
+            owner(part).pin(part);
+            synchronized (pinned) {
+                pinned.add(part);
+            }
+            Files.move(partial.toPath(), part.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            release(partial);
+        }
+
+        /**
+         * Delete this session's staged parts, to free the memory once they've
+         * been joined into the output. Parts another session has pinned too
+         * are left for it.
+         */
+        void dropStaged() {
+            if (staging == null) {
+                return;
+            }
+            synchronized (pinned) {
+                // A session can pin the same part more than once
+                Map<File, Integer> counts = new HashMap<>();
+                for (File part : pinned) {
+                    if (owner(part) == staging) {
+                        counts.merge(part, 1, Integer::sum);
+                    }
+                }
+                for (Map.Entry<File, Integer> e : counts.entrySet()) {
+                    staging.deleteIfOnlyPinned(e.getKey(), e.getValue());
+                }
+            }
+        }
+
+        private void release(File partial) {
+            Long estimate;
+            synchronized (reservations) {
+                estimate = reservations.remove(partial);
+            }
+            if (estimate != null) {
+                staging.unreserve(estimate);
+            }
+        }
+
+        private SegmentCache owner(File part) {
+            return staging != null && part.getParentFile().equals(staging.dir) ? staging : SegmentCache.this;
+        }
+
+        private String name(TimingPair pair) {
+            return fingerprint + "-" + pair.getStartMillis() + "+" + pair.getDurationMillis();
+        }
+
+        /**
+         * Unpin this session's parts, and make room for the next job.
+         *
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            synchronized (pinned) {
+                for (File part : pinned) {
+                    owner(part).unpin(part);
+                }
+                pinned.clear();
+            }
+            synchronized (reservations) {
+                for (long estimate : reservations.values()) {
+                    staging.unreserve(estimate);
+                }
+                reservations.clear();
+            }
+            if (staging != null) {
+                staging.evict();
+            }
+            evict();
+        }
+    }
+}
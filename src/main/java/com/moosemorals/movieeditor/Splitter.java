@@ -23,14 +23,35 @@
  */
 package com.moosemorals.movieeditor;
 
+import com.moosemorals.movieeditor.http.RequestMapper;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.http.client.utils.URIBuilder;
-import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,54 +64,252 @@ public class Splitter {
 
     private final static Logger log = LoggerFactory.getLogger(Splitter.class);
 
-    public static void split(Config config, List<TimingPair> pairs) throws IOException {
-        File temp = File.createTempFile("scratch", "tmp");
+    // Buffers each streaming segment may have, and their size
+    static final int STREAM_DEPTH = 16;
+    static final int STREAM_CHUNK = 256 * 1024;
 
+    // How long to wait for workers to stop before closing what they use
+    private static final long SHUTDOWN_SECONDS = 10;
+
+    private static final AtomicInteger jobCount = new AtomicInteger();
+    private static final ExecutorService jobs = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Split-" + jobCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Split on the calling thread.
+     *
+     * @param config
+     * @param pairs
+     * @param monitor
+     * @throws IOException
+     */
+    public static void split(Config config, List<TimingPair> pairs, ProgressMonitor monitor) throws IOException {
+        split(config, pairs, monitor, Collections.newSetFromMap(new ConcurrentHashMap<>()));
+    }
+
+    /**
+     * Split on a shared pool. Cancelling the future kills any ffmpeg that's
+     * running for the split, and deletes its unfinished parts and output.
+     *
+     * @param config
+     * @param pairs
+     * @param monitor
+     * @return completes when the output has been written
+     */
+    public static CompletableFuture<Void> splitAsync(Config config, List<TimingPair> pairs, ProgressMonitor monitor) {
+        SplitTask task = new SplitTask(config, pairs, monitor);
+        jobs.execute(task);
+        return task;
+    }
+
+    private static void split(Config config, List<TimingPair> pairs, ProgressMonitor monitor, Set<Process> running) throws IOException {
+        if (config.getTraceFile() != null) {
+            Tracer.start();
+        }
+        Metrics.ACTIVE_JOBS.add(1);
+        Tracer.Span span = Tracer.span("split").arg("input", config.getInputFile()).arg("segments", pairs.size());
+        try {
+            doSplit(config, pairs, monitor, running);
+        } catch (IOException | RuntimeException ex) {
+            Metrics.FAILURES.increment();
+            throw ex;
+        } finally {
+            span.close();
+            Metrics.ACTIVE_JOBS.add(-1);
+            if (config.getTraceFile() != null) {
+                try {
+                    Tracer.write(config.getTraceFile());
+                } catch (IOException ex) {
+                    log.warn("Can't write trace to {}: {}", config.getTraceFile(), ex.getMessage());
+                } finally {
+                    Tracer.stop();
+                }
+            }
+        }
+    }
+
+    private static void doSplit(Config config, List<TimingPair> pairs, ProgressMonitor monitor, Set<Process> running) throws IOException {
+        TsIndex index = null;
+        if (config.isIndexed()) {
+            try (Tracer.Span span = Tracer.span("index")) {
+                index = TsIndex.open(new File(config.getInputFile()), config.getTempDir());
+                CutList snapped = new CutList(pairs.size());
+                for (TimingPair pair : pairs) {
+                    snapped.add(index.snap(pair));
+                }
+                pairs = snapped;
+                span.arg("keyframes", index.size());
+            } catch (IOException ex) {
+                log.warn("Can't index {}, cutting without it: {}", config.getInputFile(), ex.getMessage());
+            }
+        }
+
+        if (config.getExtractMode() == Config.ExtractMode.STREAM) {
+            stream(config, pairs, running, monitor);
+            return;
+        }
+
+        File input = new File(config.getInputFile());
+        try (SegmentCache.Session cache = openCache(config);
+                TsCutterPool cutters = new TsCutterPool(input, index)) {
+            cutAndConcat(config, pairs, cache, cutters, monitor, running);
+        }
+    }
+
+    /**
+     * Cut one segment into the part cache in the config's temp dir, unless
+     * it's there already. This is for workers that share the temp dir with
+     * whoever will {@link #join} the parts.
+     *
+     * @param config
+     * @param pair
+     * @param monitor
+     * @throws IOException
+     */
+    public static void cut(Config config, TimingPair pair, ProgressMonitor monitor) throws IOException {
+        Set<Process> running = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        File input = new File(config.getInputFile());
+        try (SegmentCache.Session cache = openCache(config);
+                TsCutterPool cutters = new TsCutterPool(input, null)) {
+            if (config.isResume() && cache.lookup(pair)) {
+                log.debug("Reusing part for {}", pair);
+                monitor.skip(ProgressMonitor.Stage.CUT, pair.getDurationMillis());
+                monitor.fileCompleted();
+            } else if (config.getExtractMode() == Config.ExtractMode.SINGLE_PASS) {
+                extractSinglePass(config, Collections.singletonList(pair), cache, running, monitor);
+            } else {
+                extractSegment(config, pair, cache, cutters, running, monitor);
+            }
+        }
+    }
+
+    /**
+     * Join parts already in the part cache, cut by {@link #cut}, into the
+     * config's output.
+     *
+     * @param config
+     * @param pairs
+     * @param monitor
+     * @throws IOException if a part is missing
+     */
+    public static void join(Config config, List<TimingPair> pairs, ProgressMonitor monitor) throws IOException {
+        Set<Process> running = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        try (SegmentCache.Session cache = openCache(config)) {
+            for (TimingPair pair : pairs) {
+                if (!cache.lookup(pair)) {
+                    throw new IOException("No part for " + pair);
+                }
+            }
+            joinParts(config, pairs, cache, running, monitor);
+        }
+    }
+
+    /**
+     * Parts are kept apart by the mode that cut them. Streaming doesn't keep
+     * parts, so when a cluster cuts in that mode, it's done per segment.
+     */
+    private static SegmentCache.Session openCache(Config config) throws IOException {
+        Config.ExtractMode mode = config.getExtractMode() == Config.ExtractMode.STREAM ? Config.ExtractMode.PER_SEGMENT : config.getExtractMode();
+        return SegmentCache.get(config).open(new File(config.getInputFile()), config.getCacheKey(), mode);
+    }
+
+    private static void cutAndConcat(Config config, List<TimingPair> pairs, SegmentCache.Session cache, TsCutterPool cutters, ProgressMonitor monitor, Set<Process> running) throws IOException {
+        List<TimingPair> todo = new ArrayList<>(pairs.size());
+        try (Tracer.Span span = Tracer.span("lookup")) {
+            for (TimingPair pair : pairs) {
+                if (config.isResume() && cache.lookup(pair)) {
+                    log.debug("Reusing part for {}", pair);
+                    monitor.skip(ProgressMonitor.Stage.CUT, pair.getDurationMillis());
+                    monitor.fileCompleted();
+                } else {
+                    todo.add(pair);
+                }
+            }
+            span.arg("reused", pairs.size() - todo.size());
+        }
+        log.info("Cutting {} of {} segments", todo.size(), pairs.size());
+
+        Tracer.Span span = Tracer.span("cut").arg("mode", config.getExtractMode()).arg("segments", todo.size());
+        try {
+            if (config.getExtractMode() == Config.ExtractMode.SINGLE_PASS && !todo.isEmpty()) {
+                extractSinglePass(config, todo, cache, running, monitor);
+            } else if (config.getThreads() > 1 && todo.size() > 1) {
+                extractParallel(config, todo, cache, cutters, running, monitor);
+            } else {
+                for (TimingPair pair : todo) {
+                    extractSegment(config, pair, cache, cutters, running, monitor);
+                }
+            }
+        } finally {
+            span.close();
+        }
+
+        joinParts(config, pairs, cache, running, monitor);
+    }
+
+    /**
+     * Join finished parts, natively if the config and output allow it, with
+     * ffmpeg otherwise. Staged parts are dropped once they're in the output.
+     */
+    private static void joinParts(Config config, List<TimingPair> pairs, SegmentCache.Session cache, Set<Process> running, ProgressMonitor monitor) throws IOException {
         File finalResult = new File(config.getOutputFile());
 
         if (finalResult.exists()) {
             finalResult.delete();
         }
 
-        Duration length = Duration.ZERO;
-
-        try (PrintWriter out = new PrintWriter(new FileWriter(temp))) {
+        if (config.isNativeConcat() && isTransportStream(finalResult)) {
+            List<File> parts = new ArrayList<>(pairs.size());
             for (TimingPair pair : pairs) {
-                File partFile = File.createTempFile("part-", ".ts", config.getTempDir());
-                partFile.deleteOnExit();
-
-                String[] cmd = {
-                    "/usr/bin/ffmpeg",
-                    "-hide_banner",
-                    "-progress", buildTargetURI(config, "start", TimingPair.format(pair.getStart()), "duration", TimingPair.format(pair.getDuration())),
-                    "-loglevel", "0",
-                    "-y",
-                    "-ss", TimingPair.format(pair.getStart()),
-                    "-t", TimingPair.format(pair.getDuration()),
-                    "-i", config.getInputFile(),
-                    "-f", "mpegts",
-                    "-c", "copy",
-                    "-avoid_negative_ts", "1",
-                    "-copyts",
-                    partFile.getAbsolutePath()
-                };
+                parts.add(cache.partFile(pair));
+            }
+            long started = System.nanoTime();
+            try (Tracer.Span span = Tracer.span("join").arg("method", "native")) {
+                new TsConcatenator().concat(parts, finalResult, monitor);
+                Metrics.CONCAT_SECONDS.observeSince(started);
+                span.arg("bytes", finalResult.length());
+                cache.dropStaged();
+                return;
+            } catch (IOException ex) {
+                log.warn("Native concat failed, falling back to ffmpeg: {}", ex.getMessage());
+                finalResult.delete();
+            }
+        }
 
-                int result = runProcess(cmd);
-                log.info("Process result {}", result);
-                if (result != 0) {
-                    throw new IOException("ffmpeg error, no details. Sorry.");
-                }
-                out.printf("file '%s'\n", partFile.getAbsolutePath());
+        try (Tracer.Span span = Tracer.span("join").arg("method", "ffmpeg")) {
+            concat(config, pairs, cache, finalResult, running, monitor);
+            span.arg("bytes", finalResult.length());
+        }
+        cache.dropStaged();
+    }
 
-                length = length.plus(pair.getDuration());
+    /**
+     * Join the parts with ffmpeg's concat demuxer.
+     */
+    private static void concat(Config config, List<TimingPair> pairs, SegmentCache.Session cache, File finalResult, Set<Process> running, ProgressMonitor monitor) throws IOException {
+        long length = 0;
+
+        File temp = File.createTempFile("concat-", ".txt", config.getTempDir());
+        temp.deleteOnExit();
+        Tracer.Span span = Tracer.span("concat list");
+        try (PrintWriter out = new PrintWriter(new FileWriter(temp))) {
+            for (int i = 0; i < pairs.size(); i += 1) {
+                out.printf("file '%s'\n", cache.partFile(pairs.get(i)).getAbsolutePath());
+                length += pairs.get(i).getDurationMillis();
             }
             out.flush();
+        } finally {
+            span.close();
         }
 
+        List<TimingPair> concatTiming = Collections.singletonList(new TimingPair(0, length));
         String[] cmd = {
-            "/usr/bin/ffmpeg",
+            config.getFfmpeg(),
             "-hide_banner",
-            "-progress", buildTargetURI(config, "start", TimingPair.format(Duration.ZERO), "duration", TimingPair.format(length)),
+            "-progress", progressTarget(config, concatTiming, ProgressMonitor.Stage.JOIN),
             "-loglevel", "0",
             "-f", "concat",
             "-safe", "0",
@@ -99,29 +318,454 @@ public class Splitter {
             finalResult.getAbsolutePath()
         };
 
-        int result = runProcess(cmd);
+        long started = System.nanoTime();
+        int result;
+        try {
+            result = runProcess(config, running, tracker(config, monitor, concatTiming, ProgressMonitor.Stage.JOIN), cmd);
+        } catch (IOException ex) {
+            finalResult.delete();
+            throw ex;
+        } finally {
+            temp.delete();
+        }
+        Metrics.CONCAT_SECONDS.observeSince(started);
         log.debug("Process result {}", result);
+        if (result != 0) {
+            finalResult.delete();
+            throw new IOException("ffmpeg error, no details. Sorry.");
+        }
+    }
+
+    /**
+     * Cut each segment with an ffmpeg that writes to stdout, and copy them
+     * into the output in order through {@link TsStitcher}.
+     * <p>
+     * Up to {@link Config#getThreads()} segments are cut at once. Each has a
+     * queue of at most {@link #STREAM_DEPTH} buffers, so a segment that's
+     * ahead of the output fills its queue and then its ffmpeg blocks on the
+     * pipe until the output catches up. Progress comes on stderr.
+     */
+    private static void stream(Config config, List<TimingPair> pairs, Set<Process> running, ProgressMonitor monitor) throws IOException {
+        File finalResult = new File(config.getOutputFile());
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(config.getThreads(), pairs.size())), r -> {
+            Thread t = new Thread(r, "Streamer-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        List<StreamSegment> segments = new ArrayList<>(pairs.size());
+        List<Future<Void>> futures = new ArrayList<>(pairs.size());
+        try (FileChannel out = FileChannel.open(finalResult.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The pool takes these in order, so the segment the output is
+            // waiting for has always started
+            for (TimingPair pair : pairs) {
+                StreamSegment segment = new StreamSegment();
+                segments.add(segment);
+                futures.add(pool.submit(() -> {
+                    Tracer.Span span = segmentSpan(pair);
+                    try {
+                        streamSegment(config, pair, segment, running, monitor);
+                    } finally {
+                        span.close();
+                    }
+                    return null;
+                }));
+            }
+
+            TsStitcher stitcher = new TsStitcher(out);
+            for (StreamSegment segment : segments) {
+                try (Tracer.Span span = Tracer.span("stitch")) {
+                    long before = stitcher.getWritten();
+                    stitcher.startSegment();
+                    ByteBuffer b;
+                    while ((b = segment.take()) != StreamSegment.END) {
+                        stitcher.write(b);
+                        segment.recycle(b);
+                    }
+                    span.arg("bytes", stitcher.getWritten() - before);
+                }
+            }
+            log.debug("Streamed {} bytes", stitcher.getWritten());
+            // Stands in for the concat, which streaming doesn't need
+            monitor.skip(ProgressMonitor.Stage.JOIN, monitor.getTotalMillis(ProgressMonitor.Stage.JOIN));
+            monitor.fileCompleted();
+        } catch (InterruptedException ex) {
+            finalResult.delete();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while streaming segments");
+        } catch (IOException | RuntimeException ex) {
+            finalResult.delete();
+            throw ex;
+        } finally {
+            for (Future<Void> f : futures) {
+                f.cancel(true);
+            }
+            for (Process p : running) {
+                p.destroyForcibly();
+            }
+            shutdown(pool);
+        }
+    }
+
+    /**
+     * Stop a pool and wait a while for its workers to finish, so they're not
+     * still using the cache or the cutters when those are closed. Waits even
+     * if this thread has been interrupted, and keeps the interrupt.
+     */
+    private static void shutdown(ExecutorService pool) {
+        pool.shutdownNow();
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (!pool.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Workers still running after {} seconds", SHUTDOWN_SECONDS);
+            }
+        } catch (InterruptedException ex) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Cut one segment into its queue. However it fails, the queue is failed
+     * too, or the output would wait on it for ever.
+     */
+    private static void streamSegment(Config config, TimingPair pair, StreamSegment segment, Set<Process> running, ProgressMonitor monitor) throws IOException, InterruptedException {
+        try {
+            pipeSegment(config, pair, segment, running, monitor);
+        } catch (Throwable ex) {
+            segment.fail(ex instanceof IOException ? (IOException) ex : new IOException(ex));
+            throw ex;
+        }
+    }
+
+    private static void pipeSegment(Config config, TimingPair pair, StreamSegment segment, Set<Process> running, ProgressMonitor monitor) throws IOException, InterruptedException {
+        List<TimingPair> timing = Collections.singletonList(pair);
+        String[] cmd = {
+            config.getFfmpeg(),
+            "-hide_banner",
+            "-progress", config.getProgressTransport() == Config.ProgressTransport.PIPE ? "pipe:2" : progressTarget(config, timing),
+            "-loglevel", "0",
+            "-ss", TimingPair.format(pair.getStartMillis()),
+            "-t", TimingPair.format(pair.getDurationMillis()),
+            "-i", config.getInputFile(),
+            "-f", "mpegts",
+            "-c", "copy",
+            "-avoid_negative_ts", "1",
+            "-copyts",
+            "pipe:1"
+        };
+
+        log.debug("Running  {}", join(" ", cmd));
+        long started = System.nanoTime();
+        Process p;
+        Tracer.Span spawn = Tracer.span("spawn");
+        try {
+            p = new ProcessBuilder(cmd).start();
+        } finally {
+            spawn.close();
+        }
+        Metrics.SPAWN_SECONDS.observeSince(started);
+        running.add(p);
+
+        CompletableFuture<Integer> exit = ProcessDrainer.get().drain(p, p.getErrorStream(), tracker(config, monitor, timing), config.getProcessTimeout());
+        try (ReadableByteChannel in = Channels.newChannel(p.getInputStream())) {
+            while (true) {
+                ByteBuffer b = segment.emptyBuffer();
+                while (b.hasRemaining() && in.read(b) >= 0) {
+                    // Fill it up
+                }
+                b.flip();
+                if (b.hasRemaining()) {
+                    segment.put(b);
+                }
+                if (b.limit() < b.capacity()) {
+                    break;
+                }
+            }
+            int result = exit.get();
+            log.info("Process result {}", result);
+            if (result != 0) {
+                throw new IOException("ffmpeg error, no details. Sorry.");
+            }
+            Metrics.SEGMENT_SECONDS.observeSince(started);
+            segment.put(StreamSegment.END);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            exit.cancel(true);
+            running.remove(p);
+        }
     }
 
-    private static int runProcess(String... cmd) throws IOException {
+    private static boolean isTransportStream(File file) {
+        return file.getName().toLowerCase().endsWith(".ts");
+    }
+
+    /**
+     * Cut segments on a pool of {@link Config#getThreads()} workers. Parts are
+     * written to their own files in the cache, so their order doesn't depend
+     * on which worker finishes first. The first failure kills any ffmpeg processes that
+     * are still running and cancels segments that haven't started.
+     */
+    private static void extractParallel(Config config, List<TimingPair> pairs, SegmentCache.Session cache, TsCutterPool cutters, Set<Process> running, ProgressMonitor monitor) throws IOException {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(config.getThreads(), pairs.size()), r -> {
+            Thread t = new Thread(r, "Splitter-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        CompletionService<Void> completion = new ExecutorCompletionService<>(pool);
+        List<Future<Void>> futures = new ArrayList<>(pairs.size());
+
         try {
-            log.debug("Running  {}", join(" ", cmd));
-            ProcessBuilder pb = new ProcessBuilder(cmd);
-            pb.redirectErrorStream(true);
+            for (int i = 0; i < pairs.size(); i += 1) {
+                TimingPair pair = pairs.get(i);
+                futures.add(completion.submit(() -> {
+                    extractSegment(config, pair, cache, cutters, running, monitor);
+                    return null;
+                }));
+            }
 
-            Process p = pb.start();
+            for (int i = 0; i < futures.size(); i += 1) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cutting segments");
+        } finally {
+            for (Future<Void> f : futures) {
+                f.cancel(true);
+            }
+            for (Process p : running) {
+                p.destroyForcibly();
+            }
+            shutdown(pool);
+        }
+    }
+
+    /**
+     * Cut every segment with one ffmpeg run. The input is opened and seeked
+     * once, to the start of the first segment, and each segment is a separate
+     * output with its own <code>-ss</code>/<code>-t</code>.
+     * <p>
+     * Each output has its timestamps offset back to where the segment started
+     * in the input, so the <code>out_time</code> that ffmpeg reports (the
+     * furthest timestamp written to any output) tracks the read position in
+     * the input. The progress URI carries every segment so the handler can
+     * turn that position into per-segment progress.
+     */
+    private static void extractSinglePass(Config config, List<TimingPair> pairs, SegmentCache.Session cache, Set<Process> running, ProgressMonitor monitor) throws IOException {
+        long origin = pairs.get(0).getStartMillis();
 
-            Scanner scan = new Scanner(p.getInputStream());
+        for (TimingPair pair : pairs) {
+            origin = Math.min(origin, pair.getStartMillis());
+        }
 
-            while (scan.hasNextLine()) {
-                log.debug("Process output: {}", scan.nextLine());
+        List<File> parts = new ArrayList<>(pairs.size());
+        for (TimingPair pair : pairs) {
+            parts.add(cache.partialFile(pair));
+        }
+
+        List<String> cmd = new ArrayList<>();
+        cmd.addAll(Arrays.asList(
+                config.getFfmpeg(),
+                "-hide_banner",
+                "-progress", progressTarget(config, pairs),
+                "-loglevel", "0",
+                "-y",
+                "-ss", TimingPair.format(origin),
+                "-i", config.getInputFile()
+        ));
+
+        for (int i = 0; i < pairs.size(); i += 1) {
+            TimingPair pair = pairs.get(i);
+            cmd.addAll(Arrays.asList(
+                    "-ss", TimingPair.format(pair.getStartMillis() - origin),
+                    "-t", TimingPair.format(pair.getDurationMillis()),
+                    "-output_ts_offset", TimingPair.format(pair.getStartMillis()),
+                    "-f", "mpegts",
+                    "-c", "copy",
+                    "-avoid_negative_ts", "1",
+                    parts.get(i).getAbsolutePath()
+            ));
+        }
+
+        long started = System.nanoTime();
+        try (Tracer.Span span = Tracer.span("single pass").arg("segments", pairs.size())) {
+            int result = runProcess(config, running, tracker(config, monitor, pairs), cmd.toArray(new String[cmd.size()]));
+            Metrics.SEGMENT_SECONDS.observeSince(started);
+            span.arg("exit", result);
+            log.info("Process result {}", result);
+            if (result != 0) {
+                throw new IOException("ffmpeg error, no details. Sorry.");
+            }
+            Tracer.Span commit = Tracer.span("commit");
+            try {
+                for (int i = 0; i < pairs.size(); i += 1) {
+                    cache.commit(pairs.get(i), parts.get(i));
+                }
+            } finally {
+                commit.close();
             }
+        } finally {
+            for (File part : parts) {
+                part.delete();
+            }
+        }
+    }
+
+    /**
+     * Cut one segment into the cache, natively if the config asks for it and
+     * the input can be handled, with ffmpeg otherwise.
+     */
+    private static void extractSegment(Config config, TimingPair pair, SegmentCache.Session cache, TsCutterPool cutters, Set<Process> running, ProgressMonitor monitor) throws IOException {
+        long started = System.nanoTime();
+        File partFile = cache.partialFile(pair);
+        try (Tracer.Span span = segmentSpan(pair)) {
+            if (config.getExtractMode() == Config.ExtractMode.NATIVE && cutNative(pair, partFile, cutters, monitor)) {
+                Metrics.SEGMENT_SECONDS.observeSince(started);
+                span.arg("method", "native");
+            } else {
+                extractPart(config, pair, partFile, running, monitor);
+                Metrics.SEGMENT_SECONDS.observeSince(started);
+                span.arg("method", "ffmpeg");
+            }
+            Tracer.Span commit = Tracer.span("commit");
+            try {
+                cache.commit(pair, partFile);
+            } finally {
+                commit.close();
+            }
+        } finally {
+            // Gone already if it worked
+            partFile.delete();
+        }
+    }
+
+    private static Tracer.Span segmentSpan(TimingPair pair) {
+        Tracer.Span span = Tracer.span("segment");
+        if (Tracer.isEnabled()) {
+            span.arg("start", TimingPair.format(pair.getStartMillis())).arg("duration", TimingPair.format(pair.getDurationMillis()));
+        }
+        return span;
+    }
+
+    /**
+     * @return false if {@link TsCutter} can't handle the input
+     * @throws InterruptedIOException if interrupted, rather than falling back
+     */
+    private static boolean cutNative(TimingPair pair, File partFile, TsCutterPool cutters, ProgressMonitor monitor) throws InterruptedIOException {
+        Tracer.Span span = Tracer.span("native cut");
+        try {
+            TsCutter cutter = cutters.take();
+            try {
+                cutter.cut(pair, partFile, monitor);
+            } finally {
+                cutters.release(cutter);
+            }
+            return true;
+        } catch (InterruptedIOException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Probably a ClosedByInterruptException, not a bad input
+                InterruptedIOException interrupted = new InterruptedIOException("Interrupted while cutting " + TimingPair.format(pair.getStartMillis()));
+                interrupted.initCause(ex);
+                throw interrupted;
+            }
+            log.warn("Native cut failed for {}, falling back to ffmpeg: {}", TimingPair.format(pair.getStartMillis()), ex.getMessage());
+            return false;
+        } finally {
+            span.close();
+        }
+    }
+
+    private static void extractPart(Config config, TimingPair pair, File partFile, Set<Process> running, ProgressMonitor monitor) throws IOException {
+        List<TimingPair> timing = Collections.singletonList(pair);
+        String[] cmd = {
+            config.getFfmpeg(),
+            "-hide_banner",
+            "-progress", progressTarget(config, timing),
+            "-loglevel", "0",
+            "-y",
+            "-ss", TimingPair.format(pair.getStartMillis()),
+            "-t", TimingPair.format(pair.getDurationMillis()),
+            "-i", config.getInputFile(),
+            "-f", "mpegts",
+            "-c", "copy",
+            "-avoid_negative_ts", "1",
+            "-copyts",
+            partFile.getAbsolutePath()
+        };
+
+        int result = runProcess(config, running, tracker(config, monitor, timing), cmd);
+        log.info("Process result {}", result);
+        if (result != 0) {
+            throw new IOException("ffmpeg error, no details. Sorry.");
+        }
+    }
 
-            return p.waitFor();
+    /**
+     * Run a command, logging its output. While it runs the process is kept in
+     * <code>running</code> so that other threads can kill it. If there's a
+     * tracker the output is ffmpeg progress and is passed to it instead. The
+     * output is read by {@link ProcessDrainer}, and the process is killed if
+     * it takes longer than {@link Config#getProcessTimeout()} or this thread
+     * is interrupted.
+     */
+    private static int runProcess(Config config, Set<Process> running, ProgressTracker tracker, String... cmd) throws IOException {
+        log.debug("Running  {}", join(" ", cmd));
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
 
+        long started = System.nanoTime();
+        Process p;
+        Tracer.Span spawn = Tracer.span("spawn");
+        try {
+            p = pb.start();
+        } finally {
+            spawn.close();
+        }
+        Metrics.SPAWN_SECONDS.observeSince(started);
+        running.add(p);
+        Tracer.Span span = Tracer.span("ffmpeg");
+        if (Tracer.isEnabled()) {
+            span.arg("cmd", join(" ", cmd));
+        }
+
+        CompletableFuture<Integer> exit = ProcessDrainer.get().drain(p, tracker, config.getProcessTimeout());
+        try {
+            return exit.get();
         } catch (InterruptedException ex) {
-            log.warn("Interrupted while running command");
-            return -1;
+            log.warn("Interrupted while running command, killing it");
+            exit.cancel(true);
+            p.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running " + cmd[0]);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            running.remove(p);
+            span.close();
         }
     }
 
@@ -145,6 +789,46 @@ public class Splitter {
         return result.toString();
     }
 
+    /**
+     * Where ffmpeg should send progress for a run that writes
+     * <code>timings</code>.
+     */
+    private static String progressTarget(Config config, List<TimingPair> timings) {
+        return progressTarget(config, timings, ProgressMonitor.Stage.CUT);
+    }
+
+    private static String progressTarget(Config config, List<TimingPair> timings, ProgressMonitor.Stage stage) {
+        if (config.getProgressTransport() == Config.ProgressTransport.PIPE) {
+            return "pipe:1";
+        }
+        String[] argPairs = new String[timings.size() * 4 + 2];
+        for (int i = 0; i < timings.size(); i += 1) {
+            TimingPair pair = timings.get(i);
+            argPairs[i * 4] = "start";
+            argPairs[i * 4 + 1] = TimingPair.format(pair.getStartMillis());
+            argPairs[i * 4 + 2] = "duration";
+            argPairs[i * 4 + 3] = TimingPair.format(pair.getDurationMillis());
+        }
+        argPairs[argPairs.length - 2] = "stage";
+        argPairs[argPairs.length - 1] = stage.name().toLowerCase();
+        return buildTargetURI(config, argPairs);
+    }
+
+    /**
+     * Tracker for progress read from the process, or null if progress goes
+     * over HTTP.
+     */
+    private static ProgressTracker tracker(Config config, ProgressMonitor monitor, List<TimingPair> timings) {
+        return tracker(config, monitor, timings, ProgressMonitor.Stage.CUT);
+    }
+
+    private static ProgressTracker tracker(Config config, ProgressMonitor monitor, List<TimingPair> timings, ProgressMonitor.Stage stage) {
+        if (config.getProgressTransport() == Config.ProgressTransport.PIPE) {
+            return new ProgressTracker(monitor, timings, stage);
+        }
+        return null;
+    }
+
     private static String buildTargetURI(Config config, String... argPairs) {
 
         URIBuilder builder = new URIBuilder();
@@ -153,6 +837,10 @@ public class Splitter {
                 .setPort(config.getPort())
                 .setScheme("http");
 
+        if (config.getJobId() != null) {
+            builder.setPath(RequestMapper.PROGRESS_PATH + config.getJobId());
+        }
+
         if (argPairs != null) {
             for (int i = 0; i < argPairs.length; i += 2) {
                 builder.addParameter(argPairs[i], argPairs[i + 1]);
@@ -162,4 +850,122 @@ public class Splitter {
         return builder.toString();
     }
 
+
+    /**
+     * A split running on {@link #jobs}, which can be cancelled from any
+     * thread.
+     */
+    private static class SplitTask extends CompletableFuture<Void> implements Runnable {
+
+        private final Config config;
+        private final List<TimingPair> pairs;
+        private final ProgressMonitor monitor;
+        private final Set<Process> running = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private Thread worker;
+
+        SplitTask(Config config, List<TimingPair> pairs, ProgressMonitor monitor) {
+            this.config = config;
+            this.pairs = pairs;
+            this.monitor = monitor;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (isDone()) {
+                    return;
+                }
+                worker = Thread.currentThread();
+            }
+            try {
+                split(config, pairs, monitor, running);
+                complete(null);
+            } catch (IOException | RuntimeException ex) {
+                completeExceptionally(ex);
+            } finally {
+                synchronized (this) {
+                    worker = null;
+                    // Don't leave a late cancel's interrupt on a pool thread
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                log.info("Cancelling split of {}", config.getInputFile());
+                synchronized (this) {
+                    if (worker != null) {
+                        worker.interrupt();
+                    }
+                }
+                for (Process p : running) {
+                    p.destroyForcibly();
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * Buffers on their way from one streaming ffmpeg to the output. Buffers
+     * go round between the two queues, so there are never more than
+     * {@link #STREAM_DEPTH} of them.
+     */
+    private static class StreamSegment {
+
+        static final ByteBuffer END = ByteBuffer.allocate(0);
+
+        private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(STREAM_DEPTH + 1);
+        private final BlockingQueue<ByteBuffer> empty = new ArrayBlockingQueue<>(STREAM_DEPTH);
+        private int allocated = 0;
+        private volatile IOException failure;
+
+        /**
+         * A buffer to fill, waiting for the output to hand one back if this
+         * segment already has as many as it's allowed.
+         */
+        ByteBuffer emptyBuffer() throws InterruptedException {
+            ByteBuffer b = empty.poll();
+            if (b == null) {
+                if (allocated < STREAM_DEPTH) {
+                    allocated += 1;
+                    return ByteBuffer.allocate(STREAM_CHUNK);
+                }
+                b = empty.take();
+            }
+            b.clear();
+            return b;
+        }
+
+        void put(ByteBuffer b) throws InterruptedException {
+            full.put(b);
+        }
+
+        /**
+         * Next buffer for the output, or {@link #END}.
+         *
+         * @throws IOException if the ffmpeg for this segment failed
+         */
+        ByteBuffer take() throws IOException, InterruptedException {
+            ByteBuffer b = full.take();
+            if (b == END && failure != null) {
+                throw failure;
+            }
+            return b;
+        }
+
+        void recycle(ByteBuffer b) {
+            empty.offer(b);
+        }
+
+        void fail(IOException ex) {
+            failure = ex;
+            // There's always room for this, since a full buffer has to be
+            // taken before another empty one is handed out
+            full.offer(END);
+        }
+    }
 }
@@ -26,21 +26,51 @@ package com.moosemorals.movieeditor;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.LinkedList;
-import java.util.List;
 
 public class TimingDataParser {
 
-    public static List<TimingPair> parse(Reader source) throws IOException {
-        List<TimingPair> result = new LinkedList<>();
+    /**
+     * Read 'start duration' lines, separated by any whitespace. Blank lines are
+     * skipped.
+     *
+     * @param source
+     * @return
+     * @throws IOException if a line can't be parsed
+     */
+    public static CutList parse(Reader source) throws IOException {
+        CutList result = new CutList();
 
         BufferedReader in = new BufferedReader(source);
         String line;
+        int lineNumber = 0;
         while ((line = in.readLine()) != null) {
-            String[] parts = line.split("\\s+");
-            result.add(new TimingPair(parts[0], parts[1]));
+            lineNumber += 1;
+            int length = line.length();
+            int startFrom = skip(line, 0, true);
+            if (startFrom == length) {
+                continue;
+            }
+            int startTo = skip(line, startFrom, false);
+            int durationFrom = skip(line, startTo, true);
+            int durationTo = skip(line, durationFrom, false);
+            if (durationFrom == durationTo) {
+                throw new IOException("Line " + lineNumber + ": expected start and duration, got '" + line + "'");
+            }
+            try {
+                result.add(TimingPair.parseMillis(line, startFrom, startTo), TimingPair.parseMillis(line, durationFrom, durationTo));
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("Line " + lineNumber + ": " + ex.getMessage(), ex);
+            }
         }
         return result;
     }
 
+    private static int skip(String line, int from, boolean whitespace) {
+        int i = from;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i)) == whitespace) {
+            i += 1;
+        }
+        return i;
+    }
+
 }
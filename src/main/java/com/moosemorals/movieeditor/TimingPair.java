@@ -24,47 +24,50 @@
 package com.moosemorals.movieeditor;
 
 import org.joda.time.Duration;
-import org.joda.time.format.PeriodFormatter;
-import org.joda.time.format.PeriodFormatterBuilder;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
+ * A segment to keep, as a start and a duration in milliseconds.
  *
  * @author Osric Wilkinson <osric@fluffypeople.com>
  */
 public class TimingPair {
 
-    private final Logger log = LoggerFactory.getLogger(TimingPair.class);
+    private final long start;
+    private final long duration;
 
-    public final static PeriodFormatter DURATION_FORMATTER = new PeriodFormatterBuilder()
-            .minimumPrintedDigits(2)
-            .printZeroAlways()
-            .appendHours()
-            .appendSeparator(":")
-            .appendMinutes()
-            .appendSeparator(":")
-            .appendSeconds()
-            .appendSeparator(".")
-            .appendMillis()
-            .toFormatter();
+    public TimingPair(String start, String duration) {
+        this(parseMillis(start), parseMillis(duration));
+    }
 
-    private final Duration start;
-    private final Duration duration;
+    public TimingPair(Duration start, Duration duration) {
+        this(start.getMillis(), duration.getMillis());
+    }
 
-    public TimingPair(String start, String end) {
-        this.start = parse(start);
-        this.duration = parse(end);
+    public TimingPair(long start, long duration) {
+        this.start = start;
+        this.duration = duration;
     }
 
     public Duration getStart() {
-        return start;
+        return new Duration(start);
     }
 
     public Duration getDuration() {
+        return new Duration(duration);
+    }
+
+    public long getStartMillis() {
+        return start;
+    }
+
+    public long getDurationMillis() {
         return duration;
     }
 
+    public long getEndMillis() {
+        return start + duration;
+    }
+
     /**
      * Expectes '00:00:00.24'
      *
@@ -72,10 +75,113 @@ public class TimingPair {
      * @return
      */
     public static Duration parse(String input) {
-        return DURATION_FORMATTER.parsePeriod(input).toStandardDuration();
+        return new Duration(parseMillis(input));
+    }
+
+    public static long parseMillis(CharSequence input) {
+        return parseMillis(input, 0, input.length());
+    }
+
+    /**
+     * Parse <code>[[HH:]MM:]SS[.fff]</code> without allocating. Any number of
+     * digits are allowed in each field, and the fraction is a decimal fraction
+     * of a second, so '.24' is 240ms. Digits past milliseconds are dropped.
+     *
+     * @param input
+     * @param from index of the first character
+     * @param to index after the last character
+     * @return
+     * @throws IllegalArgumentException if the input isn't a time
+     */
+    public static long parseMillis(CharSequence input, int from, int to) {
+        long seconds = 0;
+        long field = 0;
+        int digits = 0;
+        int fields = 0;
+        int i = from;
+        for (; i < to; i += 1) {
+            char c = input.charAt(i);
+            if (c >= '0' && c <= '9') {
+                field = field * 10 + (c - '0');
+                digits += 1;
+            } else if (c == ':' && digits > 0 && fields < 2) {
+                seconds = seconds * 60 + field;
+                field = 0;
+                digits = 0;
+                fields += 1;
+            } else if (c == '.') {
+                break;
+            } else {
+                throw badTime(input, from, to);
+            }
+        }
+        if (digits == 0) {
+            throw badTime(input, from, to);
+        }
+        long millis = (seconds * 60 + field) * 1000;
+
+        if (i < to) {
+            // Skip the '.'
+            i += 1;
+            int scale = 100;
+            if (i == to) {
+                throw badTime(input, from, to);
+            }
+            for (; i < to; i += 1) {
+                char c = input.charAt(i);
+                if (c < '0' || c > '9') {
+                    throw badTime(input, from, to);
+                }
+                millis += (c - '0') * scale;
+                scale /= 10;
+            }
+        }
+        return millis;
     }
 
     public static String format(Duration d) {
-        return DURATION_FORMATTER.print(d.toPeriod());
+        return format(d.getMillis());
+    }
+
+    /**
+     * Format as <code>HH:MM:SS.mmm</code>, which ffmpeg and
+     * {@link #parseMillis(CharSequence)} both read.
+     *
+     * @param millis
+     * @return
+     */
+    public static String format(long millis) {
+        return format(new StringBuilder(12), millis).toString();
+    }
+
+    public static StringBuilder format(StringBuilder out, long millis) {
+        if (millis < 0) {
+            out.append('-');
+            millis = -millis;
+        }
+        long hours = millis / 3600000;
+        if (hours < 10) {
+            out.append('0');
+        }
+        out.append(hours).append(':');
+        pad(out, (int) (millis / 60000 % 60), 2).append(':');
+        pad(out, (int) (millis / 1000 % 60), 2).append('.');
+        return pad(out, (int) (millis % 1000), 3);
+    }
+
+    private static StringBuilder pad(StringBuilder out, int value, int width) {
+        for (int limit = width == 3 ? 100 : 10; limit > 1 && value < limit; limit /= 10) {
+            out.append('0');
+        }
+        return out.append(value);
+    }
+
+    private static IllegalArgumentException badTime(CharSequence input, int from, int to) {
+        return new IllegalArgumentException("Can't parse time: '" + input.subSequence(from, to) + "'");
+    }
+
+    @Override
+    public String toString() {
+        return format(start) + " +" + format(duration);
     }
 }
@@ -0,0 +1,288 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide record of how long things took, written out as Chrome
+ * trace-event JSON for Perfetto or <code>chrome://tracing</code>.
+ *
+ * Nothing is recorded until {@link #start()} is called, and recording stops,
+ * and what was recorded is dropped, once each start has had its
+ * {@link #stop()}. While it's off {@link #span(String)} hands back a shared
+ * span that does nothing, so leaving spans in hot paths costs a volatile
+ * read. Args that take work to build should be added only if
+ * {@link #isEnabled()}.
+ *
+ * <pre>
+ * try (Tracer.Span span = Tracer.span("cut").arg("start", pair)) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public final class Tracer {
+
+    /**
+     * Most events kept. Anything after is dropped, and counted.
+     */
+    public static final int MAX_EVENTS = 1000000;
+
+    private static final long origin = System.nanoTime();
+    private static final Queue<Event> events = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger count = new AtomicInteger();
+    private static final AtomicInteger dropped = new AtomicInteger();
+    private static final Span NOOP = new Span(null);
+    private static volatile boolean enabled;
+    private static int starts;
+
+    private Tracer() {
+    }
+
+    /**
+     * Start recording, for a run that wants a trace. Runs can overlap, so
+     * recording goes on until each of them has called {@link #stop()}.
+     */
+    public static synchronized void start() {
+        starts += 1;
+        enabled = true;
+    }
+
+    /**
+     * Undo a {@link #start()}. After the last one, stop recording and drop
+     * the events.
+     */
+    public static synchronized void stop() {
+        if (starts == 0) {
+            return;
+        }
+        starts -= 1;
+        if (starts == 0) {
+            enabled = false;
+            events.clear();
+            count.set(0);
+            dropped.set(0);
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start timing something. It's recorded when the span is closed, on the
+     * thread that started it.
+     *
+     * @param name
+     * @return
+     */
+    public static Span span(String name) {
+        return enabled ? new Span(name) : NOOP;
+    }
+
+    /**
+     * Mark a moment on the current thread.
+     *
+     * @param name
+     */
+    public static void instant(String name) {
+        if (enabled) {
+            add(new Event('i', name, System.nanoTime(), 0, Thread.currentThread(), null));
+        }
+    }
+
+    private static void add(Event event) {
+        if (!enabled) {
+            // A span that was open when recording stopped
+            return;
+        }
+        if (count.incrementAndGet() > MAX_EVENTS) {
+            count.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        events.add(event);
+    }
+
+    /**
+     * Write everything recorded so far. Events are kept until recording
+     * stops, so a later write has everything this one had, and more.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public static synchronized void write(File file) throws IOException {
+        String pid = ManagementFactory.getRuntimeMXBean().getName();
+        int at = pid.indexOf('@');
+        pid = at > 0 ? pid.substring(0, at) : "0";
+
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+                out.write("{\"traceEvents\":[\n");
+                Map<Long, String> threads = new HashMap<>();
+                boolean first = true;
+                for (Event e : events) {
+                    threads.putIfAbsent(e.tid, e.thread);
+                    if (!first) {
+                        out.write(",\n");
+                    }
+                    first = false;
+                    out.write("{\"name\":");
+                    quote(out, e.name);
+                    out.write(",\"ph\":\"" + e.phase + "\",\"pid\":" + pid + ",\"tid\":" + e.tid);
+                    out.write(",\"ts\":" + (e.start - origin) / 1000);
+                    if (e.phase == 'X') {
+                        out.write(",\"dur\":" + e.duration / 1000);
+                    } else {
+                        out.write(",\"s\":\"t\"");
+                    }
+                    if (e.args != null) {
+                        out.write(",\"args\":{");
+                        for (int i = 0; i < e.args.length; i += 2) {
+                            if (i > 0) {
+                                out.write(',');
+                            }
+                            quote(out, e.args[i]);
+                            out.write(':');
+                            quote(out, e.args[i + 1]);
+                        }
+                        out.write('}');
+                    }
+                    out.write('}');
+                }
+                for (Map.Entry<Long, String> t : threads.entrySet()) {
+                    if (!first) {
+                        out.write(",\n");
+                    }
+                    first = false;
+                    out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + pid + ",\"tid\":" + t.getKey() + ",\"args\":{\"name\":");
+                    quote(out, t.getValue());
+                    out.write("}}");
+                }
+                out.write("\n],\"displayTimeUnit\":\"ms\",\"otherData\":{\"dropped\":\"" + dropped.get() + "\"}}\n");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static void quote(Writer out, String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Something being timed. Close it, with try-with-resources, when it's
+     * done.
+     */
+    public static final class Span implements AutoCloseable {
+
+        private final String name;
+        private final long start;
+        private String[] args;
+
+        private Span(String name) {
+            this.name = name;
+            this.start = name != null ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Attach a value to show with the span.
+         *
+         * @param key
+         * @param value
+         * @return this span
+         */
+        public Span arg(String key, Object value) {
+            if (name != null) {
+                int n = args == null ? 0 : args.length;
+                String[] more = new String[n + 2];
+                if (args != null) {
+                    System.arraycopy(args, 0, more, 0, n);
+                }
+                more[n] = key;
+                more[n + 1] = String.valueOf(value);
+                args = more;
+            }
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (name != null) {
+                add(new Event('X', name, start, System.nanoTime() - start, Thread.currentThread(), args));
+            }
+        }
+    }
+
+    private static final class Event {
+
+        final char phase;
+        final String name;
+        final long start;
+        final long duration;
+        final long tid;
+        final String thread;
+        final String[] args;
+
+        Event(char phase, String name, long start, long duration, Thread thread, String[] args) {
+            this.phase = phase;
+            this.name = name;
+            this.start = start;
+            this.duration = duration;
+            this.tid = thread.getId();
+            this.thread = thread.getName();
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Joins MPEG transport stream parts into one file without running ffmpeg.
+ *
+ * Parts are appended whole with {@link FileChannel#transferTo}, so the kernel
+ * does the copying. Where a part's first packet on a PID doesn't carry on from
+ * the continuity counter the previous part ended with, an adaptation field
+ * only packet with the discontinuity indicator set is written in front of the
+ * part. Its counter is one less than the part's first, so the part itself
+ * then counts on without a break. The same flag on the PCR PID tells decoders
+ * that the timestamps jump where the adverts were taken out.
+ *
+ * Parts must be whole packets starting with a sync byte, which is what
+ * {@link TsCutter} and ffmpeg both write. Anything else is reported as an
+ * IOException so that the caller can fall back to ffmpeg.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class TsConcatenator {
+
+    private final static Logger log = LoggerFactory.getLogger(TsConcatenator.class);
+
+    // How many packets at each end of a part to look through for counters
+    private static final long SCAN_PACKETS = 20000;
+    private static final int PID_COUNT = 0x2000;
+    private static final int NULL_PID = 0x1FFF;
+    // Most transferTo will move in one call, which keeps progress moving
+    private static final long CHUNK = 64L * 1024 * 1024;
+
+    /**
+     * @param parts in order
+     * @param output replaced if it exists
+     * @param monitor told how much has been copied. If the join fails, the
+     * progress and bytes already reported are taken back, so that whatever
+     * joins the parts instead can report them again.
+     * @throws IOException if a part isn't a transport stream, or on error
+     */
+    public void concat(List<File> parts, File output, ProgressMonitor monitor) throws IOException {
+        long total = 0;
+        for (File part : parts) {
+            if (part.length() % TsFile.PACKET_SIZE != 0) {
+                throw new IOException(part + " isn't whole packets");
+            }
+            total += part.length();
+        }
+
+        int[] lastCc = new int[PID_COUNT];
+        Arrays.fill(lastCc, -1);
+        int[] firstCc = new int[PID_COUNT];
+        ByteBuffer packets = ByteBuffer.allocate(TsFile.PACKET_SIZE * 16);
+        long copied = 0;
+        int inserted = 0;
+        double reported = 0;
+
+        try (FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < parts.size(); i += 1) {
+                try (TsFile ts = new TsFile(parts.get(i))) {
+                    if (ts.getFirst() != 0) {
+                        throw new IOException(parts.get(i) + " doesn't start with a packet");
+                    }
+
+                    if (i > 0) {
+                        int pcrPid = pcrPid(ts);
+                        firstCounters(ts, firstCc);
+                        for (int pid = 0; pid < PID_COUNT; pid += 1) {
+                            if (firstCc[pid] >= 0 && (firstCc[pid] != lastCc[pid] || pid == pcrPid)) {
+                                if (packets.remaining() < TsFile.PACKET_SIZE) {
+                                    write(out, packets);
+                                }
+                                discontinuity(packets, pid, (firstCc[pid] + 15) & 0x0f);
+                                inserted += 1;
+                            }
+                        }
+                        write(out, packets);
+                    }
+
+                    FileChannel in = ts.getChannel();
+                    long size = ts.getSize();
+                    long position = 0;
+                    while (position < size) {
+                        long sent = in.transferTo(position, Math.min(CHUNK, size - position), out);
+                        if (sent <= 0) {
+                            throw new IOException("Can't copy " + parts.get(i));
+                        }
+                        position += sent;
+                        double progress = monitor.getTotalMillis(ProgressMonitor.Stage.JOIN) * sent / total;
+                        monitor.addBytes(sent);
+                        monitor.addProgress(ProgressMonitor.Stage.JOIN, progress);
+                        reported += progress;
+                        copied += sent;
+                    }
+
+                    lastCounters(ts, lastCc);
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            monitor.addProgress(ProgressMonitor.Stage.JOIN, -reported);
+            monitor.discardBytes(copied);
+            throw ex;
+        }
+        log.debug("Joined {} parts, {} bytes, with {} discontinuity packets", parts.size(), copied, inserted);
+        monitor.fileCompleted();
+    }
+
+    private static void write(FileChannel out, ByteBuffer packets) throws IOException {
+        packets.flip();
+        while (packets.hasRemaining()) {
+            out.write(packets);
+        }
+        packets.clear();
+    }
+
+    /**
+     * An adaptation field only packet, with the discontinuity indicator set
+     * and the rest of the field stuffed.
+     */
+    static void discontinuity(ByteBuffer b, int pid, int cc) {
+        b.put(TsFile.SYNC);
+        b.put((byte) ((pid >> 8) & 0x1f));
+        b.put((byte) pid);
+        b.put((byte) (0x20 | cc));
+        b.put((byte) (TsFile.PACKET_SIZE - 5));
+        b.put((byte) 0x80);
+        for (int i = 6; i < TsFile.PACKET_SIZE; i += 1) {
+            b.put((byte) 0xff);
+        }
+    }
+
+    /**
+     * The timestamps always jump between parts, so the PCR PID always gets
+     * the flag, even if its counter happens to carry on.
+     *
+     * @return the part's PCR PID, or -1 if it doesn't have a PMT
+     */
+    private static int pcrPid(TsFile ts) {
+        try {
+            return ts.readProgram().pcrPid;
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Counter of the first packet with a payload on each PID near the start
+     * of the part, -1 for PIDs that don't have one.
+     */
+    private static void firstCounters(TsFile ts, int[] cc) throws IOException {
+        Arrays.fill(cc, -1);
+        long limit = Math.min(ts.getPacketCount(), SCAN_PACKETS);
+        for (long i = 0; i < limit; i += 1) {
+            long offset = ts.offsetOf(i);
+            ByteBuffer b = ts.map(offset);
+            int p = ts.position(offset);
+            if (!TsFile.isSync(b, p)) {
+                throw new IOException("Lost sync at " + offset);
+            }
+            int pid = TsFile.pid(b, p);
+            if (pid != NULL_PID && cc[pid] < 0 && TsFile.hasPayload(b, p)) {
+                cc[pid] = TsFile.continuity(b, p);
+            }
+        }
+    }
+
+    /**
+     * Counter each PID should carry on with after the part: one more than its
+     * last packet with a payload. PIDs not seen near the end keep what they
+     * had, or -1.
+     */
+    private static void lastCounters(TsFile ts, int[] cc) throws IOException {
+        boolean[] seen = new boolean[PID_COUNT];
+        long count = ts.getPacketCount();
+        long limit = Math.max(0, count - SCAN_PACKETS);
+        for (long i = count - 1; i >= limit; i -= 1) {
+            long offset = ts.offsetOf(i);
+            ByteBuffer b = ts.map(offset);
+            int p = ts.position(offset);
+            if (!TsFile.isSync(b, p)) {
+                throw new IOException("Lost sync at " + offset);
+            }
+            int pid = TsFile.pid(b, p);
+            if (!seen[pid] && TsFile.hasPayload(b, p)) {
+                seen[pid] = true;
+                cc[pid] = (TsFile.continuity(b, p) + 1) & 0x0f;
+            }
+        }
+    }
+}
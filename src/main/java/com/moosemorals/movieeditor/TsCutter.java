@@ -0,0 +1,296 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cuts segments out of an MPEG transport stream without running ffmpeg.
+ *
+ * The input is memory mapped and searched for the video (or, failing that,
+ * audio) PES packet nearest each cut point. Segments start on the last
+ * keyframe at or before their start time and run up to the first packet at or
+ * after their end, which is what <code>ffmpeg -ss -t -c copy</code> does. The
+ * PAT and PMT from the start of the input are written at the front of each
+ * segment, followed by the packets between the cut points, unchanged.
+ *
+ * Times are measured from the earliest audio or video timestamp, as ffmpeg
+ * does. If a {@link TsIndex} is given the cut points are looked up in it
+ * instead of searching the input.
+ *
+ * Anything this can't handle (not a TS, no PMT, no keyframe flags) is reported
+ * as an IOException so that the caller can fall back to ffmpeg.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class TsCutter implements Closeable {
+
+    private final static Logger log = LoggerFactory.getLogger(TsCutter.class);
+
+    private static final long TICKS_PER_MS = 90;
+    // Stop binary searching when the range is this many packets
+    private static final long SCAN_PACKETS = 4096;
+    // How far before a cut to start looking for a keyframe
+    private static final long KEYFRAME_MARGIN = 10 * 1000 * TICKS_PER_MS;
+
+    private final TsFile ts;
+    private final TsFile.Program program;
+    private final int timingPid;
+    private final long basePts;
+    private final TsIndex index;
+
+    private long foundIndex;
+
+    public TsCutter(File input) throws IOException {
+        this(input, null);
+    }
+
+    public TsCutter(File input, TsIndex index) throws IOException {
+        this.index = index;
+        ts = new TsFile(input);
+        try {
+            program = ts.readProgram();
+            timingPid = program.getTimingPid();
+            if (timingPid < 0) {
+                throw new IOException("No audio or video streams in " + input);
+            }
+            basePts = ts.readStartPts(program);
+            if (basePts < 0) {
+                throw new IOException("No timestamps in " + input);
+            }
+        } catch (IOException ex) {
+            ts.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Write the packets covering <code>pair</code> to <code>output</code>.
+     *
+     * @param pair segment to cut
+     * @param output where to write it. Replaced if it exists.
+     * @param monitor told how much has been copied. If the cut fails, the
+     * progress and bytes already reported are taken back, so that whatever cuts the
+     * segment instead can report it all again.
+     * @throws IOException if the cut points can't be found, or on error
+     */
+    public void cut(TimingPair pair, File output, ProgressMonitor monitor) throws IOException {
+        long startTicks = pair.getStartMillis() * TICKS_PER_MS;
+        long endTicks = startTicks + pair.getDurationMillis() * TICKS_PER_MS;
+
+        long from = ts.offsetOf(findStart(startTicks));
+        long to = ts.offsetOf(findEnd(endTicks));
+        if (to <= from) {
+            throw new IOException("Nothing to cut for " + TimingPair.format(pair.getStartMillis()));
+        }
+
+        log.debug("Cutting {} bytes from {} for {}", to - from, from, TimingPair.format(pair.getStartMillis()));
+        copy(from, to, pair.getDurationMillis(), output, monitor);
+    }
+
+    /**
+     * How far into the input has been written, going by its last timestamp.
+     * For inputs that are still being recorded, only what was there when
+     * this cutter was opened counts.
+     *
+     * @return milliseconds from the start
+     * @throws IOException if there are no timestamps near the end
+     */
+    public long getWrittenMillis() throws IOException {
+        long end = ts.readEndPts(program);
+        if (end < 0) {
+            throw new IOException("No timestamps near the end of the input");
+        }
+        return TsFile.relative(basePts, end) / TICKS_PER_MS;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ts.close();
+    }
+
+    private void copy(long from, long to, long millis, File output, ProgressMonitor monitor) throws IOException {
+        float total = to - from;
+        double reported = 0;
+        long written = 0;
+        try (FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writePacket(out, program.patOffset);
+            writePacket(out, program.pmtOffset);
+
+            long offset = from;
+            while (offset < to) {
+                ByteBuffer b = ts.map(offset).duplicate();
+                int p = ts.position(offset);
+                int length = (int) Math.min(to - offset, b.limit() - p);
+                b.limit(p + length);
+                b.position(p);
+                while (b.hasRemaining()) {
+                    out.write(b);
+                }
+                offset += length;
+                double progress = millis * length / total;
+                monitor.addBytes(length);
+                monitor.addProgress(ProgressMonitor.Stage.CUT, progress);
+                reported += progress;
+                written += length;
+            }
+        } catch (IOException | RuntimeException ex) {
+            monitor.addProgress(ProgressMonitor.Stage.CUT, -reported);
+            monitor.discardBytes(written);
+            throw ex;
+        }
+        monitor.fileCompleted();
+    }
+
+    private void writePacket(FileChannel out, long offset) throws IOException {
+        ByteBuffer b = ts.map(offset).duplicate();
+        int p = ts.position(offset);
+        b.limit(p + TsFile.PACKET_SIZE);
+        b.position(p);
+        while (b.hasRemaining()) {
+            out.write(b);
+        }
+    }
+
+    /**
+     * Index of the last keyframe at or before <code>ticks</code>, or the first
+     * after it if there isn't one before.
+     */
+    private long findStart(long ticks) throws IOException {
+        if (index != null) {
+            return packetAt(index.getOffset(index.floor(ticks)));
+        }
+        long count = ts.getPacketCount();
+        long keyframe = -1;
+        for (long i = bisect(ticks - KEYFRAME_MARGIN); i < count; i += 1) {
+            long offset = ts.offsetOf(i);
+            ByteBuffer b = ts.map(offset);
+            int p = ts.position(offset);
+            if (!isTimingStart(b, p)) {
+                continue;
+            }
+            long time = relative(TsFile.pts(b, p));
+            if (time > ticks + KEYFRAME_MARGIN) {
+                break;
+            }
+            if (TsFile.isRandomAccess(b, p)) {
+                if (time <= ticks || keyframe < 0) {
+                    keyframe = i;
+                }
+                if (time > ticks) {
+                    break;
+                }
+            } else if (time > ticks && keyframe >= 0) {
+                break;
+            }
+        }
+        if (keyframe < 0) {
+            throw new IOException("Can't find a keyframe near " + ticks / TICKS_PER_MS + "ms");
+        }
+        return keyframe;
+    }
+
+    /**
+     * Index of the first packet at or after <code>ticks</code>, or the packet
+     * count if the input ends first.
+     */
+    private long findEnd(long ticks) throws IOException {
+        long count = ts.getPacketCount();
+        for (long i = bisect(ticks); i < count; i += 1) {
+            long offset = ts.offsetOf(i);
+            ByteBuffer b = ts.map(offset);
+            int p = ts.position(offset);
+            if (isTimingStart(b, p) && relative(TsFile.pts(b, p)) >= ticks) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Binary search for a packet a little before <code>ticks</code>. Timestamps
+     * aren't quite in file order, so callers scan forward from here.
+     */
+    private long bisect(long ticks) throws IOException {
+        if (index != null) {
+            return packetAt(index.getOffset(index.floor(ticks)));
+        }
+        long lo = 0;
+        long hi = ts.getPacketCount();
+        while (hi - lo > SCAN_PACKETS) {
+            long mid = lo + (hi - lo) / 2;
+            long pts = firstPts(mid, hi);
+            if (pts < 0 || relative(pts) >= ticks) {
+                hi = mid;
+            } else {
+                lo = foundIndex;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * First timestamp on the timing stream in packets [from, to). Sets
+     * {@link #foundIndex} to the packet it was found in.
+     */
+    private long firstPts(long from, long to) throws IOException {
+        for (long i = from; i < to; i += 1) {
+            long offset = ts.offsetOf(i);
+            ByteBuffer b = ts.map(offset);
+            int p = ts.position(offset);
+            if (isTimingStart(b, p)) {
+                long pts = TsFile.pts(b, p);
+                if (pts >= 0) {
+                    foundIndex = i;
+                    return pts;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private long packetAt(long offset) {
+        return (offset - ts.getFirst()) / TsFile.PACKET_SIZE;
+    }
+
+    private boolean isTimingStart(ByteBuffer b, int p) {
+        return TsFile.isSync(b, p)
+                && TsFile.pid(b, p) == timingPid
+                && TsFile.isPayloadStart(b, p)
+                && TsFile.pts(b, p) >= 0;
+    }
+
+    private long relative(long pts) {
+        return TsFile.relative(basePts, pts);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * {@link TsCutter}s on one input, shared by the workers of a split. Cutters
+ * aren't thread safe, so each worker borrows one for a segment and gives it
+ * back afterwards. That way the input is opened, and its PAT and PMT read,
+ * once per worker rather than once per segment.
+ * <p>
+ * If the input can't be opened for cutting at all, that's remembered and
+ * thrown again to every caller without trying again.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+class TsCutterPool implements Closeable {
+
+    private final File input;
+    private final TsIndex index;
+    private final Deque<TsCutter> idle = new ArrayDeque<>();
+    private final List<TsCutter> opened = new ArrayList<>();
+    private IOException unusable;
+    private boolean closed;
+
+    /**
+     * @param input
+     * @param index passed to each cutter, may be null
+     */
+    TsCutterPool(File input, TsIndex index) {
+        this.input = input;
+        this.index = index;
+    }
+
+    /**
+     * An idle cutter, or a new one if they're all in use.
+     *
+     * @return
+     * @throws IOException if the input can't be cut natively
+     */
+    TsCutter take() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Cutters are closed");
+            }
+            if (unusable != null) {
+                throw unusable;
+            }
+            TsCutter cutter = idle.poll();
+            if (cutter != null) {
+                return cutter;
+            }
+        }
+        // Opening reads from the input, so don't hold up the other workers
+        TsCutter cutter;
+        try {
+            cutter = new TsCutter(input, index);
+        } catch (IOException ex) {
+            synchronized (this) {
+                unusable = ex;
+            }
+            throw ex;
+        }
+        synchronized (this) {
+            if (closed) {
+                cutter.close();
+                throw new IOException("Cutters are closed");
+            }
+            opened.add(cutter);
+        }
+        return cutter;
+    }
+
+    /**
+     * Give back a cutter from {@link #take()}.
+     *
+     * @param cutter
+     */
+    synchronized void release(TsCutter cutter) {
+        idle.push(cutter);
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<TsCutter> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<>(opened);
+            opened.clear();
+            idle.clear();
+        }
+        IOException failure = null;
+        for (TsCutter cutter : toClose) {
+            try {
+                cutter.close();
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
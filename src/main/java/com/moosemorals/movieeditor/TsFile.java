@@ -0,0 +1,485 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only, memory mapped view of an MPEG transport stream file, plus the
+ * static helpers needed to pick apart 188 byte TS packets.
+ *
+ * The file is mapped in windows so that files bigger than 2Gb can be read.
+ * Callers ask for the window holding a packet with {@link #map(long)} and then
+ * read the packet at {@link #position(long)} in the returned buffer.
+ *
+ * Instances are not thread safe.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+class TsFile implements Closeable {
+
+    static final int PACKET_SIZE = 188;
+    static final byte SYNC = 0x47;
+    static final long PTS_MASK = (1L << 33) - 1;
+
+    private static final long WINDOW_SIZE = PACKET_SIZE * 256L * 1024;
+    private static final long PROGRAM_SCAN_PACKETS = 100000;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long first;
+
+    private ByteBuffer window;
+    private long windowStart = -1;
+    private long windowEnd = -1;
+
+    TsFile(File file) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    TsFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.first = findFirstPacket();
+    }
+
+    /**
+     * Offset of the first packet in the file.
+     *
+     * @return
+     */
+    long getFirst() {
+        return first;
+    }
+
+    /**
+     * Size of the file when it was opened.
+     *
+     * @return
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Number of whole packets in the file.
+     *
+     * @return
+     */
+    long getPacketCount() {
+        return (size - first) / PACKET_SIZE;
+    }
+
+    /**
+     * Byte offset of packet <code>index</code>.
+     *
+     * @param index
+     * @return
+     */
+    long offsetOf(long index) {
+        return first + index * PACKET_SIZE;
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Make sure the whole packet at <code>offset</code> is mapped.
+     *
+     * @param offset
+     * @return buffer holding the packet
+     * @throws IOException
+     */
+    ByteBuffer map(long offset) throws IOException {
+        if (offset < windowStart || offset + PACKET_SIZE > windowEnd) {
+            long start = first + ((offset - first) / WINDOW_SIZE) * WINDOW_SIZE;
+            long length = Math.min(WINDOW_SIZE, size - start);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            windowStart = start;
+            windowEnd = start + length;
+        }
+        return window;
+    }
+
+    /**
+     * Position of <code>offset</code> in the buffer returned by the last call
+     * to {@link #map(long)}.
+     *
+     * @param offset
+     * @return
+     */
+    int position(long offset) {
+        return (int) (offset - windowStart);
+    }
+
+    /**
+     * Find the first PAT and PMT in the file, and the streams the PMT lists.
+     * Only the first program is read.
+     *
+     * @return
+     * @throws IOException if there is no PAT or PMT near the start of the file
+     */
+    Program readProgram() throws IOException {
+        Program program = new Program();
+        long limit = Math.min(getPacketCount(), PROGRAM_SCAN_PACKETS);
+        for (long i = 0; i < limit; i += 1) {
+            long offset = offsetOf(i);
+            ByteBuffer b = map(offset);
+            int p = position(offset);
+            if (!isSync(b, p)) {
+                continue;
+            }
+            int pid = pid(b, p);
+            if (pid == 0 && program.patOffset < 0) {
+                int s = sectionStart(b, p);
+                if (s < 0 || b.get(s) != 0x00) {
+                    continue;
+                }
+                int end = Math.min(s + 3 + sectionLength(b, s) - 4, p + PACKET_SIZE);
+                for (int q = s + 8; q + 4 <= end; q += 4) {
+                    int programNumber = ((b.get(q) & 0xff) << 8) | (b.get(q + 1) & 0xff);
+                    if (programNumber != 0) {
+                        program.pmtPid = ((b.get(q + 2) & 0x1f) << 8) | (b.get(q + 3) & 0xff);
+                        program.patOffset = offset;
+                        break;
+                    }
+                }
+            } else if (pid == program.pmtPid && program.pmtOffset < 0) {
+                int s = sectionStart(b, p);
+                if (s < 0 || b.get(s) != 0x02) {
+                    continue;
+                }
+                int end = Math.min(s + 3 + sectionLength(b, s) - 4, p + PACKET_SIZE);
+                program.pcrPid = ((b.get(s + 8) & 0x1f) << 8) | (b.get(s + 9) & 0xff);
+                int q = s + 12 + (((b.get(s + 10) & 0x0f) << 8) | (b.get(s + 11) & 0xff));
+                while (q + 5 <= end) {
+                    int type = b.get(q) & 0xff;
+                    int esPid = ((b.get(q + 1) & 0x1f) << 8) | (b.get(q + 2) & 0xff);
+                    if (program.videoPid < 0 && isVideoType(type)) {
+                        program.videoPid = esPid;
+                    } else if (program.audioPid < 0 && isAudioType(type)) {
+                        program.audioPid = esPid;
+                    }
+                    q += 5 + (((b.get(q + 3) & 0x0f) << 8) | (b.get(q + 4) & 0xff));
+                }
+                program.pmtOffset = offset;
+                return program;
+            }
+        }
+        throw new IOException("Can't find PAT and PMT");
+    }
+
+    /**
+     * Earliest timestamp of the program's audio and video streams, which is
+     * what ffmpeg treats as time zero.
+     *
+     * @param program
+     * @return the timestamp, or -1 if none were found
+     * @throws IOException
+     */
+    long readStartPts(Program program) throws IOException {
+        long videoPts = -1;
+        long audioPts = -1;
+        long limit = Math.min(getPacketCount(), PROGRAM_SCAN_PACKETS);
+        for (long i = 0; i < limit && (videoPts < 0 || (audioPts < 0 && program.audioPid >= 0)); i += 1) {
+            long offset = offsetOf(i);
+            ByteBuffer b = map(offset);
+            int p = position(offset);
+            if (!isSync(b, p)) {
+                continue;
+            }
+            int pid = pid(b, p);
+            if (pid == program.videoPid && videoPts < 0) {
+                videoPts = pts(b, p);
+            } else if (pid == program.audioPid && audioPts < 0) {
+                audioPts = pts(b, p);
+            }
+        }
+        if (videoPts < 0 || audioPts < 0) {
+            return Math.max(videoPts, audioPts);
+        }
+        // Which ever comes first, allowing for wrap
+        return ticksBetween(videoPts, audioPts) > PTS_MASK / 2 ? audioPts : videoPts;
+    }
+
+    /**
+     * Latest video (or audio, if there's no video) timestamp near the end of
+     * the file.
+     *
+     * @param program
+     * @return the timestamp, or -1 if none were found
+     * @throws IOException
+     */
+    long readEndPts(Program program) throws IOException {
+        int timingPid = program.getTimingPid();
+        long count = getPacketCount();
+        long limit = Math.max(0, count - PROGRAM_SCAN_PACKETS);
+        for (long i = count - 1; i >= limit; i -= 1) {
+            long offset = offsetOf(i);
+            ByteBuffer b = map(offset);
+            int p = position(offset);
+            if (isSync(b, p) && pid(b, p) == timingPid) {
+                long pts = pts(b, p);
+                if (pts >= 0) {
+                    return pts;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Average bitrate of the whole file, from its size and the span of its
+     * timestamps.
+     *
+     * @return bytes per millisecond, or -1 if the file has no usable
+     * timestamps
+     * @throws IOException
+     */
+    double estimateBytesPerMs() throws IOException {
+        Program program = readProgram();
+        long start = readStartPts(program);
+        long end = readEndPts(program);
+        if (start < 0 || end < 0) {
+            return -1;
+        }
+        long millis = ticksBetween(start, end) / 90;
+        if (millis <= 0) {
+            return -1;
+        }
+        return (double) (size - first) / millis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private long findFirstPacket() throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(size, PACKET_SIZE * 4));
+        channel.read(head, 0);
+        for (int i = 0; i < PACKET_SIZE && i + PACKET_SIZE * 2 < head.limit(); i += 1) {
+            if (head.get(i) == SYNC && head.get(i + PACKET_SIZE) == SYNC && head.get(i + PACKET_SIZE * 2) == SYNC) {
+                return i;
+            }
+        }
+        throw new IOException("Not an MPEG transport stream");
+    }
+
+    private static int sectionLength(ByteBuffer b, int s) {
+        return ((b.get(s + 1) & 0x0f) << 8) | (b.get(s + 2) & 0xff);
+    }
+
+    private static boolean isVideoType(int type) {
+        switch (type) {
+            case 0x01:
+            case 0x02:
+            case 0x10:
+            case 0x1B:
+            case 0x24:
+            case 0x42:
+            case 0xEA:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isAudioType(int type) {
+        switch (type) {
+            case 0x03:
+            case 0x04:
+            case 0x0F:
+            case 0x11:
+            case 0x81:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static boolean isSync(ByteBuffer b, int p) {
+        return b.get(p) == SYNC;
+    }
+
+    static int pid(ByteBuffer b, int p) {
+        return ((b.get(p + 1) & 0x1f) << 8) | (b.get(p + 2) & 0xff);
+    }
+
+    static boolean isPayloadStart(ByteBuffer b, int p) {
+        return (b.get(p + 1) & 0x40) != 0;
+    }
+
+    static int continuity(ByteBuffer b, int p) {
+        return b.get(p + 3) & 0x0f;
+    }
+
+    static boolean hasAdaptation(ByteBuffer b, int p) {
+        return (b.get(p + 3) & 0x20) != 0;
+    }
+
+    static boolean hasPayload(ByteBuffer b, int p) {
+        return (b.get(p + 3) & 0x10) != 0;
+    }
+
+    /**
+     * True if the adaptation field says a decoder can start at this packet.
+     *
+     * @param b
+     * @param p
+     * @return
+     */
+    static boolean isRandomAccess(ByteBuffer b, int p) {
+        return hasAdaptation(b, p) && (b.get(p + 4) & 0xff) > 0 && (b.get(p + 5) & 0x40) != 0;
+    }
+
+    /**
+     * Offset of the payload from the start of the packet.
+     *
+     * @param b
+     * @param p
+     * @return the offset, or -1 if the packet doesn't have a payload.
+     */
+    static int payloadOffset(ByteBuffer b, int p) {
+        if (!hasPayload(b, p)) {
+            return -1;
+        }
+        int offset = 4;
+        if (hasAdaptation(b, p)) {
+            offset += 1 + (b.get(p + 4) & 0xff);
+        }
+        return offset < PACKET_SIZE ? offset : -1;
+    }
+
+    /**
+     * Presentation timestamp of a PES packet that starts in this TS packet.
+     *
+     * @param b
+     * @param p
+     * @return the PTS (90kHz), or -1 if there isn't one.
+     */
+    static long pts(ByteBuffer b, int p) {
+        if (!isPayloadStart(b, p)) {
+            return -1;
+        }
+        int offset = payloadOffset(b, p);
+        if (offset < 0 || offset + 14 > PACKET_SIZE) {
+            return -1;
+        }
+        int q = p + offset;
+        if (b.get(q) != 0 || b.get(q + 1) != 0 || b.get(q + 2) != 1) {
+            return -1;
+        }
+        int streamId = b.get(q + 3) & 0xff;
+        if (streamId < 0xC0 || streamId > 0xEF) {
+            // Only audio and video streams carry the optional PES header
+            return -1;
+        }
+        if ((b.get(q + 7) & 0x80) == 0) {
+            return -1;
+        }
+        return ((b.get(q + 9) & 0x0eL) << 29)
+                | ((b.get(q + 10) & 0xffL) << 22)
+                | ((b.get(q + 11) & 0xfeL) << 14)
+                | ((b.get(q + 12) & 0xffL) << 7)
+                | ((b.get(q + 13) & 0xfeL) >> 1);
+    }
+
+    /**
+     * Difference between two 33 bit timestamps, allowing for one wrap.
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    static long ticksBetween(long from, long to) {
+        return (to - from) & PTS_MASK;
+    }
+
+    /**
+     * Ticks from <code>base</code> to <code>pts</code>. Timestamps a little
+     * before the base (reordered frames) come out negative rather than
+     * wrapping.
+     *
+     * @param base
+     * @param pts
+     * @return
+     */
+    static long relative(long base, long pts) {
+        long ticks = ticksBetween(base, pts);
+        if (ticks > PTS_MASK / 2) {
+            ticks -= PTS_MASK + 1;
+        }
+        return ticks;
+    }
+
+    /**
+     * Start of the PSI section in a packet that starts one.
+     *
+     * @param b
+     * @param p
+     * @return position of the table id, or -1
+     */
+    static int sectionStart(ByteBuffer b, int p) {
+        if (!isPayloadStart(b, p)) {
+            return -1;
+        }
+        int offset = payloadOffset(b, p);
+        if (offset < 0) {
+            return -1;
+        }
+        int start = offset + 1 + (b.get(p + offset) & 0xff);
+        return start + 12 < PACKET_SIZE ? p + start : -1;
+    }
+
+    /**
+     * What the first PMT in a file says about its streams.
+     */
+    static final class Program {
+
+        long patOffset = -1;
+        long pmtOffset = -1;
+        int pmtPid = -1;
+        int pcrPid = -1;
+        int videoPid = -1;
+        int audioPid = -1;
+
+        /**
+         * The stream used to work out where a time falls in the file. Video if
+         * there is any, otherwise audio.
+         *
+         * @return
+         */
+        int getTimingPid() {
+            return videoPid >= 0 ? videoPid : audioPid;
+        }
+    }
+}
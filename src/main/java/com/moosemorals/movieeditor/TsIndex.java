@@ -0,0 +1,316 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keyframe index of an MPEG transport stream.
+ *
+ * For each keyframe of the video stream (or audio, if there isn't any video)
+ * this records its timestamp and the byte offset of the packet it starts in.
+ * Times are in 90kHz ticks from the start of the input, the same zero that
+ * ffmpeg uses for <code>-ss</code>.
+ *
+ * Indexes are saved next to the input as <code>&lt;input&gt;.idx</code>, or in
+ * the temp directory if that can't be written, and are only used again while
+ * the input's size and modification time are unchanged.
+ *
+ * Lookups are binary searches, so an input whose keyframe timestamps ever go
+ * backwards (a splice, or a jump of more than half the wrap range) can't be
+ * indexed, and is cut without one.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class TsIndex {
+
+    private final static Logger log = LoggerFactory.getLogger(TsIndex.class);
+
+    private static final int MAGIC = 0x54534958; // "TSIX"
+    private static final int VERSION = 2;
+    private static final long TICKS_PER_MS = 90;
+
+    private final long fileSize;
+    private final long modified;
+    private final long[] ticks;
+    private final long[] offsets;
+
+    private TsIndex(long fileSize, long modified, long[] ticks, long[] offsets) {
+        this.fileSize = fileSize;
+        this.modified = modified;
+        this.ticks = ticks;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Load the saved index for <code>input</code>, building and saving one if
+     * there isn't a current one.
+     *
+     * @param input
+     * @param tempDir fallback location for the index
+     * @return
+     * @throws IOException
+     */
+    public static TsIndex open(File input, File tempDir) throws IOException {
+        TsIndex index = load(input, tempDir);
+        if (index == null) {
+            log.info("Building index for {}", input);
+            index = build(input);
+            index.save(input, tempDir);
+        }
+        return index;
+    }
+
+    /**
+     * Load the saved index for <code>input</code>.
+     *
+     * @param input
+     * @param tempDir fallback location for the index
+     * @return the index, or null if there isn't one that matches the input.
+     */
+    public static TsIndex load(File input, File tempDir) {
+        for (File f : new File[]{sidecar(input), fallback(input, tempDir)}) {
+            if (f == null || !f.isFile()) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    continue;
+                }
+                long fileSize = in.readLong();
+                long modified = in.readLong();
+                if (fileSize != input.length() || modified != input.lastModified()) {
+                    log.debug("Index {} is stale", f);
+                    continue;
+                }
+                int count = in.readInt();
+                long[] ticks = new long[count];
+                long[] offsets = new long[count];
+                long lastTicks = 0;
+                long lastOffset = 0;
+                for (int i = 0; i < count; i += 1) {
+                    lastTicks += readDelta(in);
+                    lastOffset += readDelta(in);
+                    ticks[i] = lastTicks;
+                    offsets[i] = lastOffset;
+                }
+                return new TsIndex(fileSize, modified, ticks, offsets);
+            } catch (IOException ex) {
+                log.warn("Can't read index {}: {}", f, ex.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the whole of <code>input</code> and index its keyframes.
+     *
+     * @param input
+     * @return
+     * @throws IOException if the input isn't a TS that can be indexed, or its
+     * keyframe timestamps go backwards
+     */
+    public static TsIndex build(File input) throws IOException {
+        long modified = input.lastModified();
+        try (TsFile ts = new TsFile(input)) {
+            TsFile.Program program = ts.readProgram();
+            int timingPid = program.getTimingPid();
+            long base = ts.readStartPts(program);
+            if (timingPid < 0 || base < 0) {
+                throw new IOException("No timestamps in " + input);
+            }
+
+            int count = 0;
+            long[] ticks = new long[1024];
+            long[] offsets = new long[1024];
+
+            long packets = ts.getPacketCount();
+            for (long i = 0; i < packets; i += 1) {
+                long offset = ts.offsetOf(i);
+                ByteBuffer b = ts.map(offset);
+                int p = ts.position(offset);
+                if (!TsFile.isSync(b, p)) {
+                    continue;
+                }
+                if (TsFile.pid(b, p) != timingPid || !TsFile.isRandomAccess(b, p)) {
+                    continue;
+                }
+                long pts = TsFile.pts(b, p);
+                if (pts < 0) {
+                    continue;
+                }
+                if (count == ticks.length) {
+                    ticks = Arrays.copyOf(ticks, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                ticks[count] = TsFile.relative(base, pts);
+                if (count > 0 && ticks[count] < ticks[count - 1]) {
+                    throw new IOException("Timestamps go backwards at byte " + offset + " of " + input);
+                }
+                offsets[count] = offset;
+                count += 1;
+            }
+
+            if (count == 0) {
+                throw new IOException("No keyframes marked in " + input);
+            }
+            log.debug("Indexed {} keyframes", count);
+            return new TsIndex(ts.getSize(), modified,
+                    Arrays.copyOf(ticks, count), Arrays.copyOf(offsets, count));
+        }
+    }
+
+    /**
+     * Save next to the input if possible, otherwise in the temp directory.
+     * Ticks and offsets are stored as deltas from the previous entry, seven
+     * bits to a byte, to keep the file small. Both only go up, so the deltas
+     * are never negative.
+     *
+     * @param input
+     * @param tempDir
+     * @throws IOException
+     */
+    public void save(File input, File tempDir) throws IOException {
+        File target = sidecar(input);
+        if (!input.getAbsoluteFile().getParentFile().canWrite()) {
+            target = fallback(input, tempDir);
+        }
+        if (target == null) {
+            return;
+        }
+
+        File temp = new File(target.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(modified);
+            out.writeInt(ticks.length);
+            long lastTicks = 0;
+            long lastOffset = 0;
+            for (int i = 0; i < ticks.length; i += 1) {
+                writeDelta(out, ticks[i] - lastTicks);
+                writeDelta(out, offsets[i] - lastOffset);
+                lastTicks = ticks[i];
+                lastOffset = offsets[i];
+            }
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Can't write index " + target);
+        }
+        log.debug("Saved index to {}", target);
+    }
+
+    public int size() {
+        return ticks.length;
+    }
+
+    /**
+     * Keyframe time in 90kHz ticks from the start of the input.
+     *
+     * @param i
+     * @return
+     */
+    public long getTicks(int i) {
+        return ticks[i];
+    }
+
+    public long getOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Last keyframe at or before <code>time</code>, or the first one if the
+     * time is before it.
+     *
+     * @param time ticks from the start of the input
+     * @return
+     */
+    public int floor(long time) {
+        int i = Arrays.binarySearch(ticks, time);
+        if (i >= 0) {
+            return i;
+        }
+        return Math.max(0, -i - 2);
+    }
+
+    /**
+     * Move the start of <code>pair</code> back to a keyframe. The duration is
+     * stretched to keep the same end.
+     *
+     * @param pair
+     * @return
+     */
+    public TimingPair snap(TimingPair pair) {
+        long start = pair.getStartMillis();
+        long keyframe = Math.max(0, ticks[floor(start * TICKS_PER_MS)] / TICKS_PER_MS);
+        if (keyframe >= start) {
+            return pair;
+        }
+        return new TimingPair(keyframe, pair.getDurationMillis() + start - keyframe);
+    }
+
+    private static void writeDelta(DataOutputStream out, long delta) throws IOException {
+        if (delta < 0) {
+            throw new IOException("Index goes backwards");
+        }
+        while (delta >= 0x80) {
+            out.writeByte((int) (delta & 0x7f) | 0x80);
+            delta >>>= 7;
+        }
+        out.writeByte((int) delta);
+    }
+
+    private static long readDelta(DataInputStream in) throws IOException {
+        long delta = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            int b = in.readUnsignedByte();
+            delta |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return delta;
+            }
+        }
+        throw new IOException("Bad delta in index");
+    }
+
+    private static File sidecar(File input) {
+        return new File(input.getPath() + ".idx");
+    }
+
+    private static File fallback(File input, File tempDir) {
+        return tempDir == null ? null : new File(tempDir, input.getName() + ".idx");
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Joins transport streams as they're written, for when parts go straight
+ * from ffmpeg to the output without being written to disk.
+ *
+ * Every packet goes through here, so rather than mark breaks in the
+ * continuity counters (as {@link TsConcatenator} has to) they're taken out:
+ * each PID's counters are shifted so its first packet in a segment carries on
+ * from its last packet in the one before. Gaps and repeats inside a segment
+ * are left as they are. Timestamps do jump, so in every segment after the
+ * first each PID's first packet is preceded by an adaptation field only
+ * packet with the discontinuity indicator set. That's what tells decoders
+ * the PCR has a new time base, and it's harmless on the other PIDs.
+ *
+ * Input can be split anywhere, a packet that straddles two buffers is put
+ * back together.
+ *
+ * Not thread safe.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+class TsStitcher {
+
+    private static final int PID_COUNT = 0x2000;
+    private static final int NULL_PID = 0x1FFF;
+
+    private final WritableByteChannel out;
+    // Next counter to write on each PID, -1 if it hasn't been seen
+    private final int[] next = new int[PID_COUNT];
+    // Added to each PID's counters in this segment, -1 until its first packet
+    private final int[] shift = new int[PID_COUNT];
+    private final ByteBuffer carry = ByteBuffer.allocate(TsFile.PACKET_SIZE);
+    private final ByteBuffer extra = ByteBuffer.allocate(TsFile.PACKET_SIZE);
+    private int segments = 0;
+    private long written = 0;
+
+    TsStitcher(WritableByteChannel out) {
+        this.out = out;
+        Arrays.fill(next, -1);
+    }
+
+    /**
+     * Start a new segment. Anything left over from the last one that wasn't a
+     * whole packet is dropped.
+     */
+    void startSegment() {
+        Arrays.fill(shift, -1);
+        carry.clear();
+        segments += 1;
+    }
+
+    /**
+     * Write the packets in <code>b</code>, from its position to its limit.
+     *
+     * @param b changed in place
+     * @throws IOException if the input isn't a transport stream
+     */
+    void write(ByteBuffer b) throws IOException {
+        if (carry.position() > 0) {
+            while (carry.hasRemaining() && b.hasRemaining()) {
+                carry.put(b.get());
+            }
+            if (carry.hasRemaining()) {
+                return;
+            }
+            carry.flip();
+            if (packet(carry, 0)) {
+                send(extra);
+            }
+            send(carry);
+            carry.clear();
+        }
+
+        int start = b.position();
+        int p = start;
+        while (p + TsFile.PACKET_SIZE <= b.limit()) {
+            if (packet(b, p)) {
+                // Write up to here, then the extra packet
+                ByteBuffer before = b.duplicate();
+                before.position(start).limit(p);
+                send(before);
+                send(extra);
+                start = p;
+            }
+            p += TsFile.PACKET_SIZE;
+        }
+        ByteBuffer rest = b.duplicate();
+        rest.position(start).limit(p);
+        send(rest);
+
+        b.position(p);
+        carry.put(b);
+    }
+
+    long getWritten() {
+        return written;
+    }
+
+    /**
+     * Shift the counter of the packet at <code>p</code>.
+     *
+     * @return true if the packet needs the discontinuity packet that's now in
+     * <code>extra</code> written in front of it
+     */
+    private boolean packet(ByteBuffer b, int p) throws IOException {
+        if (!TsFile.isSync(b, p)) {
+            throw new IOException("Lost sync in stream");
+        }
+        int pid = TsFile.pid(b, p);
+        if (pid == NULL_PID) {
+            return false;
+        }
+        int cc = TsFile.continuity(b, p);
+        boolean discontinuity = false;
+        if (shift[pid] < 0) {
+            if (next[pid] < 0) {
+                shift[pid] = 0;
+            } else {
+                // Packets without a payload repeat the last counter
+                int want = TsFile.hasPayload(b, p) ? next[pid] : (next[pid] + 15) & 0x0f;
+                shift[pid] = (want - cc + 16) & 0x0f;
+            }
+            if (segments > 1) {
+                extra.clear();
+                TsConcatenator.discontinuity(extra, pid, (cc + shift[pid] + 15) & 0x0f);
+                extra.flip();
+                discontinuity = true;
+            }
+        }
+        int shifted = (cc + shift[pid]) & 0x0f;
+        b.put(p + 3, (byte) ((b.get(p + 3) & 0xf0) | shifted));
+        if (TsFile.hasPayload(b, p)) {
+            next[pid] = (shifted + 1) & 0x0f;
+        }
+        return discontinuity;
+    }
+
+    private void send(ByteBuffer b) throws IOException {
+        written += b.remaining();
+        while (b.hasRemaining()) {
+            out.write(b);
+        }
+    }
+}
@@ -25,6 +25,7 @@ package com.moosemorals.movieeditor;
 
 import java.awt.BorderLayout;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JProgressBar;
 import javax.swing.SwingUtilities;
 import org.slf4j.Logger;
@@ -44,19 +45,38 @@ public class UI {
 
         frame = new JFrame("Movie Splitter");
 
-        JProgressBar bar = new JProgressBar(monitor);
+        ProgressModel model = new ProgressModel(monitor);
+        JProgressBar bar = new JProgressBar(model);
+        JLabel status = new JLabel(status(monitor));
+        model.addChangeListener(e -> status.setText(status(monitor)));
 
         frame.setLayout(new BorderLayout());
         frame.add(bar, BorderLayout.CENTER);
+        frame.add(status, BorderLayout.SOUTH);
 
         frame.pack();
 
     }
 
+    private static String status(ProgressMonitor monitor) {
+        long eta = monitor.getEtaMillis() / 1000;
+        return String.format("%d%%, %d:%02d:%02d left, %.1f MB/s",
+                monitor.getValue(), eta / 3600, (eta / 60) % 60, eta % 60,
+                monitor.getCurrentBytesPerSecond() / (1024 * 1024));
+    }
+
     public void start() {
         SwingUtilities.invokeLater(() -> {
             frame.setVisible(true);
         });
     }
 
+    /**
+     * Close the window, which lets the JVM exit once nothing else is
+     * running.
+     */
+    public void stop() {
+        SwingUtilities.invokeLater(frame::dispose);
+    }
+
 }
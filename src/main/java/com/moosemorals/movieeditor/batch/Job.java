@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.batch;
+
+/**
+ * One recording to cut: where it is, the timing data to cut it with, and where
+ * the result goes.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class Job {
+
+    public enum State {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    private final String id;
+    private final int priority;
+    private final long created;
+    private final String inputFile;
+    private final String cutList;
+    private final String outputFile;
+    private State state;
+    private String message;
+
+    public Job(String id, int priority, long created, String inputFile, String cutList, String outputFile, State state, String message) {
+        this.id = id;
+        this.priority = priority;
+        this.created = created;
+        this.inputFile = inputFile;
+        this.cutList = cutList;
+        this.outputFile = outputFile;
+        this.state = state;
+        this.message = message;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Higher priority jobs run first. Jobs with the same priority run in the
+     * order they were added.
+     *
+     * @return
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public String getInputFile() {
+        return inputFile;
+    }
+
+    /**
+     * Path to a file in the same format as the timingData resource.
+     *
+     * @return
+     */
+    public String getCutList() {
+        return cutList;
+    }
+
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized String getMessage() {
+        return message;
+    }
+
+    synchronized void setState(State state, String message) {
+        this.state = state;
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return id + " (" + inputFile + ")";
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Jobs waiting to be cut, saved to a file after every change so that the queue
+ * survives restarts.
+ *
+ * The file has one tab separated line per job: id, priority, created, state,
+ * input, cut list, output, message.
+ *
+ * Several processes can use the same queue, for instance one adding jobs while
+ * another runs them. Every change takes a lock on
+ * <code>&lt;queue&gt;.lock</code>, reads what other processes have saved,
+ * makes the change, and saves, so nobody's changes are lost. Runners also
+ * hold a shared lock on <code>&lt;queue&gt;.run</code> while they run, and
+ * the first one to start with no other runners around puts jobs left running
+ * by a runner that died back in the queue. Use one instance per file in a
+ * JVM, since file locks are held by the whole JVM.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class JobQueue {
+
+    /**
+     * How often a runner waiting for jobs looks for ones added by other
+     * processes.
+     */
+    public static final long POLL_MS = 5000;
+
+    private final Logger log = LoggerFactory.getLogger(JobQueue.class);
+
+    private static final Comparator<Job> ORDER = Comparator
+            .comparingInt(Job::getPriority).reversed()
+            .thenComparingLong(Job::getCreated);
+
+    private final File file;
+    private final File lockFile;
+    private final File runnerFile;
+    private final List<Job> jobs = new ArrayList<>();
+    private FileChannel runner;
+    private boolean closed = false;
+
+    private JobQueue(File file) {
+        this.file = file;
+        this.lockFile = new File(file.getPath() + ".lock");
+        this.runnerFile = new File(file.getPath() + ".run");
+    }
+
+    /**
+     * Read a queue from <code>file</code>, or start an empty one if the file
+     * doesn't exist.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static JobQueue load(File file) throws IOException {
+        JobQueue queue = new JobQueue(file);
+        synchronized (queue) {
+            FileChannel lock = queue.lock();
+            try {
+                queue.refresh();
+                if (!file.exists()) {
+                    queue.save();
+                }
+            } finally {
+                lock.close();
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Start running jobs from this queue. Until the queue is closed, other
+     * processes can see there's a runner. If there wasn't one already, jobs
+     * marked as running were left by a runner that died, and are run again.
+     *
+     * @throws IOException
+     */
+    public synchronized void recover() throws IOException {
+        if (runner != null) {
+            return;
+        }
+        FileChannel channel = FileChannel.open(runnerFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock alone = channel.tryLock();
+            if (alone != null) {
+                FileChannel lock = lock();
+                try {
+                    refresh();
+                    int count = 0;
+                    for (Job job : jobs) {
+                        if (job.getState() == Job.State.RUNNING) {
+                            job.setState(Job.State.PENDING, null);
+                            count += 1;
+                        }
+                    }
+                    if (count > 0) {
+                        log.info("Running {} interrupted jobs again", count);
+                        save();
+                    }
+                } finally {
+                    lock.close();
+                }
+                alone.release();
+            }
+            channel.lock(0, Long.MAX_VALUE, true);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+        runner = channel;
+    }
+
+    /**
+     * Add a job to the queue.
+     *
+     * @param priority
+     * @param inputFile
+     * @param cutList
+     * @param outputFile
+     * @return the new job
+     * @throws IOException if the queue can't be saved
+     */
+    public synchronized Job add(int priority, String inputFile, String cutList, String outputFile) throws IOException {
+        for (String s : new String[]{inputFile, cutList, outputFile}) {
+            if (s.indexOf('\t') >= 0 || s.indexOf('\n') >= 0) {
+                throw new IllegalArgumentException("Paths can't contain tabs or new lines: " + s);
+            }
+        }
+        Job job = new Job(UUID.randomUUID().toString(), priority, System.currentTimeMillis(),
+                inputFile, cutList, outputFile, Job.State.PENDING, null);
+        FileChannel lock = lock();
+        try {
+            refresh();
+            jobs.add(job);
+            save();
+        } finally {
+            lock.close();
+        }
+        notifyAll();
+        log.info("Queued {}", job);
+        return job;
+    }
+
+    /**
+     * Wait for the highest priority pending job, and mark it as running.
+     *
+     * @param wait if false, return straight away when nothing is pending
+     * @return the job, or null if the queue is closed (or empty, if not
+     * waiting).
+     * @throws InterruptedException
+     * @throws IOException if the queue can't be saved
+     */
+    public synchronized Job take(boolean wait) throws InterruptedException, IOException {
+        while (!closed) {
+            FileChannel lock = lock();
+            try {
+                refresh();
+                Job next = null;
+                for (Job job : jobs) {
+                    if (job.getState() == Job.State.PENDING && (next == null || ORDER.compare(job, next) < 0)) {
+                        next = job;
+                    }
+                }
+                if (next != null) {
+                    next.setState(Job.State.RUNNING, null);
+                    save();
+                    return next;
+                }
+            } finally {
+                lock.close();
+            }
+            if (!wait) {
+                return null;
+            }
+            // Jobs added by other processes don't wake us
+            wait(POLL_MS);
+        }
+        return null;
+    }
+
+    public synchronized void completed(Job job) throws IOException {
+        setState(job, Job.State.DONE, null);
+    }
+
+    public synchronized void failed(Job job, String message) throws IOException {
+        setState(job, Job.State.FAILED, message == null ? null : message.replaceAll("[\t\n]", " "));
+    }
+
+    private void setState(Job job, Job.State state, String message) throws IOException {
+        FileChannel lock = lock();
+        try {
+            refresh();
+            job.setState(state, message);
+            save();
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Wake anybody waiting in {@link #take(boolean)}, and stop counting as a
+     * runner.
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        closed = true;
+        notifyAll();
+        if (runner != null) {
+            runner.close();
+            runner = null;
+        }
+    }
+
+    public synchronized List<Job> getJobs() {
+        return new ArrayList<>(jobs);
+    }
+
+    /**
+     * Lock the queue file against other processes. Closing the channel
+     * releases the lock.
+     */
+    private FileChannel lock() throws IOException {
+        FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+        return channel;
+    }
+
+    /**
+     * Pick up changes saved by other processes. Jobs already known keep
+     * their instance, so callers holding one see its new state.
+     */
+    private void refresh() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        Map<String, Job> known = new HashMap<>();
+        for (Job job : jobs) {
+            known.put(job.getId(), job);
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 8) {
+                    throw new IOException("Bad line in " + file + ": " + line);
+                }
+                Job.State state = Job.State.valueOf(parts[3]);
+                String message = parts[7].isEmpty() ? null : parts[7];
+                Job job = known.get(parts[0]);
+                if (job != null) {
+                    job.setState(state, message);
+                } else {
+                    jobs.add(new Job(parts[0], Integer.parseInt(parts[1]), Long.parseLong(parts[2]),
+                            parts[4], parts[5], parts[6], state, message));
+                }
+            }
+        }
+    }
+
+    /**
+     * Write to a temp file, then move it over the old queue so a crash while
+     * saving doesn't lose it.
+     */
+    private void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"))) {
+            for (Job job : jobs) {
+                out.printf("%s\t%d\t%d\t%s\t%s\t%s\t%s\t%s\n",
+                        job.getId(), job.getPriority(), job.getCreated(), job.getState(),
+                        job.getInputFile(), job.getCutList(), job.getOutputFile(),
+                        job.getMessage() == null ? "" : job.getMessage());
+            }
+            if (out.checkError()) {
+                throw new IOException("Can't write " + temp);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Can't replace " + file);
+            }
+        }
+    }
+}
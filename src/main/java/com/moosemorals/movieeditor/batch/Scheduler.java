@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.batch;
+
+import com.moosemorals.movieeditor.Config;
+import com.moosemorals.movieeditor.CutListOptimizer;
+import com.moosemorals.movieeditor.ProgressHistory;
+import com.moosemorals.movieeditor.ProgressMonitor;
+import com.moosemorals.movieeditor.Splitter;
+import com.moosemorals.movieeditor.TimingDataParser;
+import com.moosemorals.movieeditor.TimingPair;
+import com.moosemorals.movieeditor.http.MonitorRegistry;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs jobs from a {@link JobQueue}, a few at a time, in this JVM. Each job is
+ * cut with the settings from a base {@link Config}, with its own input and
+ * output, and reports progress through a shared server under its job id.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class Scheduler {
+
+    private final Logger log = LoggerFactory.getLogger(Scheduler.class);
+
+    private final JobQueue queue;
+    private final Config baseConfig;
+    private final MonitorRegistry monitors;
+    private final int concurrentJobs;
+
+    /**
+     * @param queue jobs to run
+     * @param baseConfig settings shared by every job
+     * @param monitors where each job's monitor is registered
+     * @param concurrentJobs how many jobs to run at once
+     */
+    public Scheduler(JobQueue queue, Config baseConfig, MonitorRegistry monitors, int concurrentJobs) {
+        this.queue = queue;
+        this.baseConfig = baseConfig;
+        this.monitors = monitors;
+        this.concurrentJobs = concurrentJobs;
+    }
+
+    /**
+     * Run jobs until there are none left.
+     *
+     * @param wait if true, keep waiting for new jobs until the queue is closed
+     * @throws InterruptedException
+     */
+    public void run(boolean wait) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>(concurrentJobs);
+        for (int i = 0; i < concurrentJobs; i += 1) {
+            String name = "Scheduler-" + (i + 1);
+            Thread t = new Thread(() -> work(wait), name);
+            t.start();
+            workers.add(t);
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+    }
+
+    private void work(boolean wait) {
+        try {
+            Job job;
+            while ((job = queue.take(wait)) != null) {
+                runJob(job);
+            }
+        } catch (InterruptedException ex) {
+            log.warn("Interrupted waiting for jobs");
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            log.error("Can't update job queue", ex);
+        }
+    }
+
+    private void runJob(Job job) throws IOException {
+        log.info("Starting {}", job);
+        Config config = new Config.Builder(baseConfig)
+                .setInputFile(job.getInputFile())
+                .setOutputFile(job.getOutputFile())
+                .setJobId(job.getId())
+                .build();
+
+        try {
+            List<TimingPair> pairs;
+            try (Reader in = new InputStreamReader(new FileInputStream(job.getCutList()), "utf-8")) {
+                pairs = TimingDataParser.parse(in);
+            }
+            pairs = CutListOptimizer.optimize(config, pairs);
+
+            ProgressMonitor monitor = new ProgressMonitor(pairs, ProgressHistory.load(config));
+            monitors.register(job.getId(), monitor);
+            try {
+                Splitter.split(config, pairs, monitor);
+            } finally {
+                monitors.unregister(job.getId());
+            }
+
+            queue.completed(job);
+            log.info("Finished {}", job);
+        } catch (IOException | RuntimeException ex) {
+            log.error("Job {} failed", job, ex);
+            queue.failed(job, ex.getMessage());
+        }
+    }
+}
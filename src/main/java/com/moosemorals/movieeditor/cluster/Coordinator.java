@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.cluster;
+
+import com.moosemorals.movieeditor.Config;
+import com.moosemorals.movieeditor.ProgressMonitor;
+import com.moosemorals.movieeditor.Splitter;
+import com.moosemorals.movieeditor.TimingPair;
+import com.moosemorals.movieeditor.http.RequestMapper;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands the segments of one job out to {@link Worker}s, over HTTP, and joins
+ * the parts they cut once every segment is done. Workers must share the
+ * input and the temp dir with the coordinator.
+ *
+ * Each segment is leased to one worker at a time. Workers renew their lease
+ * with heartbeats, which also carry their progress. A segment whose lease runs
+ * out, because the worker died or hung, goes back in the pool for someone
+ * else, up to {@link #MAX_ATTEMPTS} times.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class Coordinator implements HttpRequestHandler {
+
+    /**
+     * Prefix for every cluster request.
+     */
+    public static final String PATH = "/cluster/";
+
+    /**
+     * How long a lease lasts without a heartbeat.
+     */
+    public static final long LEASE_MS = 10000;
+
+    /**
+     * How many times a segment is handed out before the job fails.
+     */
+    public static final int MAX_ATTEMPTS = 3;
+
+    private enum State {
+        PENDING, LEASED, DONE
+    }
+
+    private static class Task {
+
+        final int id;
+        final TimingPair pair;
+        State state = State.PENDING;
+        String worker;
+        long expires;
+        int attempts;
+        double credited;
+        long bytes;
+
+        Task(int id, TimingPair pair) {
+            this.id = id;
+            this.pair = pair;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(Coordinator.class);
+
+    private final Config config;
+    private final List<TimingPair> pairs;
+    private final ProgressMonitor monitor;
+    private final String jobId;
+    private final Task[] tasks;
+    private int remaining;
+    private IOException failure;
+    private boolean finished;
+
+    /**
+     * @param config settings for the job. Workers are told the input and temp
+     * dir, and use their own settings for the rest.
+     * @param pairs segments to cut
+     * @param monitor gets progress from every worker, and from the join
+     */
+    public Coordinator(Config config, List<TimingPair> pairs, ProgressMonitor monitor) {
+        this.config = config;
+        this.pairs = pairs;
+        this.monitor = monitor;
+        this.jobId = config.getJobId() != null ? config.getJobId() : UUID.randomUUID().toString();
+        tasks = new Task[pairs.size()];
+        for (int i = 0; i < tasks.length; i += 1) {
+            tasks[i] = new Task(i, pairs.get(i));
+        }
+        remaining = tasks.length;
+    }
+
+    /**
+     * Serve cluster requests from a server's mapper.
+     *
+     * @param mapper
+     * @return the mapper
+     */
+    public RequestMapper register(RequestMapper mapper) {
+        return mapper.addHandler(PATH, this);
+    }
+
+    /**
+     * Wait for workers to cut every segment, then join the parts.
+     *
+     * @throws IOException if a segment failed too often, or the join failed
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        log.info("Job {} waiting for {} segments", jobId, tasks.length);
+        synchronized (this) {
+            try {
+                while (remaining > 0 && failure == null) {
+                    expireLeases();
+                    wait(1000);
+                }
+            } finally {
+                // Tell workers there's nothing more for them
+                finished = true;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        log.info("Job {} cut, joining", jobId);
+        Splitter.join(config, pairs, monitor);
+    }
+
+    @Override
+    public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException, IOException {
+        Map<String, String> params;
+        String path;
+        try {
+            URI uri = new URI(request.getRequestLine().getUri());
+            path = uri.getPath();
+            params = new HashMap<>();
+            for (NameValuePair p : URLEncodedUtils.parse(uri, StandardCharsets.UTF_8)) {
+                params.put(p.getName(), p.getValue());
+            }
+        } catch (URISyntaxException ex) {
+            response.setStatusCode(HttpStatus.SC_BAD_REQUEST);
+            return;
+        }
+
+        String worker = params.get("worker");
+        if (!request.getRequestLine().getMethod().equals("POST") || worker == null) {
+            response.setStatusCode(HttpStatus.SC_BAD_REQUEST);
+            return;
+        }
+
+        if (path.equals(PATH + "lease")) {
+            lease(worker, response);
+            return;
+        }
+
+        Task task;
+        try {
+            int id = Integer.parseInt(params.get("task"));
+            if (!jobId.equals(params.get("job")) || id < 0 || id >= tasks.length) {
+                response.setStatusCode(HttpStatus.SC_NOT_FOUND);
+                return;
+            }
+            task = tasks[id];
+        } catch (NumberFormatException ex) {
+            response.setStatusCode(HttpStatus.SC_BAD_REQUEST);
+            return;
+        }
+
+        switch (path.substring(PATH.length())) {
+            case "heartbeat":
+                try {
+                    heartbeat(task, worker, Long.parseLong(params.get("progress")), Long.parseLong(params.get("bytes")), response);
+                } catch (NullPointerException | NumberFormatException ex) {
+                    response.setStatusCode(HttpStatus.SC_BAD_REQUEST);
+                }
+                break;
+            case "done":
+                done(task, worker, response);
+                break;
+            case "failed":
+                failed(task, worker, params.get("reason"), response);
+                break;
+            default:
+                response.setStatusCode(HttpStatus.SC_NOT_FOUND);
+        }
+    }
+
+    /**
+     * Hand the worker a pending segment, as properties. 204 if everything is
+     * leased, 410 if the job is over.
+     */
+    private synchronized void lease(String worker, HttpResponse response) throws IOException {
+        if (finished || failure != null) {
+            response.setStatusCode(HttpStatus.SC_GONE);
+            return;
+        }
+        expireLeases();
+        for (Task task : tasks) {
+            if (task.state == State.PENDING) {
+                task.state = State.LEASED;
+                task.worker = worker;
+                task.expires = System.currentTimeMillis() + LEASE_MS;
+                task.attempts += 1;
+                log.info("Segment {} leased to {}", task.id, worker);
+
+                Properties p = new Properties();
+                p.setProperty("job", jobId);
+                p.setProperty("task", Integer.toString(task.id));
+                p.setProperty("input", config.getInputFile());
+                p.setProperty("tempDir", config.getTempDir().getPath());
+                p.setProperty("mode", config.getExtractMode().name());
+                p.setProperty("start", Long.toString(task.pair.getStartMillis()));
+                p.setProperty("duration", Long.toString(task.pair.getDurationMillis()));
+                StringWriter body = new StringWriter();
+                p.store(body, null);
+
+                StringEntity entity = new StringEntity(body.toString(), "UTF-8");
+                entity.setContentType("text/plain; charset=utf-8");
+                response.setStatusCode(HttpStatus.SC_OK);
+                response.setEntity(entity);
+                return;
+            }
+        }
+        response.setStatusCode(HttpStatus.SC_NO_CONTENT);
+    }
+
+    /**
+     * Renew a lease, and pass on any progress since the last heartbeat.
+     * Progress, in milliseconds of video, and bytes are totals for the
+     * segment so far. 409 if the worker has lost the lease.
+     */
+    private synchronized void heartbeat(Task task, String worker, long progress, long bytes, HttpResponse response) {
+        if (task.state != State.LEASED || !worker.equals(task.worker)) {
+            response.setStatusCode(HttpStatus.SC_CONFLICT);
+            return;
+        }
+        task.expires = System.currentTimeMillis() + LEASE_MS;
+        credit(task, Math.min(task.pair.getDurationMillis(), progress), bytes);
+        response.setStatusCode(HttpStatus.SC_OK);
+    }
+
+    /**
+     * The part is in the cache, whoever holds the lease, so the first worker
+     * to finish a segment wins.
+     */
+    private synchronized void done(Task task, String worker, HttpResponse response) {
+        if (task.state != State.DONE) {
+            log.info("Segment {} done by {}", task.id, worker);
+            credit(task, task.pair.getDurationMillis(), task.bytes);
+            task.state = State.DONE;
+            monitor.fileCompleted();
+            remaining -= 1;
+            notifyAll();
+        }
+        response.setStatusCode(HttpStatus.SC_OK);
+    }
+
+    private synchronized void failed(Task task, String worker, String reason, HttpResponse response) {
+        if (task.state == State.LEASED && worker.equals(task.worker)) {
+            log.warn("Segment {} failed on {}: {}", task.id, worker, reason);
+            release(task);
+        }
+        response.setStatusCode(HttpStatus.SC_OK);
+    }
+
+    private void credit(Task task, double progress, long bytes) {
+        if (progress > task.credited) {
+            monitor.addProgress(ProgressMonitor.Stage.CUT, progress - task.credited);
+            task.credited = progress;
+        }
+        if (bytes > task.bytes) {
+            monitor.addBytes(bytes - task.bytes);
+            task.bytes = bytes;
+        }
+    }
+
+    private void expireLeases() {
+        long now = System.currentTimeMillis();
+        for (Task task : tasks) {
+            if (task.state == State.LEASED && task.expires < now) {
+                log.warn("Lease on segment {} by {} ran out", task.id, task.worker);
+                release(task);
+            }
+        }
+    }
+
+    /**
+     * Put a segment back in the pool, taking back the progress it reported.
+     * Bytes stay counted, since they were written.
+     */
+    private void release(Task task) {
+        monitor.addProgress(ProgressMonitor.Stage.CUT, -task.credited);
+        task.credited = 0;
+        task.bytes = 0;
+        task.worker = null;
+        if (task.attempts >= MAX_ATTEMPTS) {
+            failure = new IOException("Segment " + TimingPair.format(task.pair.getStartMillis()) + " failed " + task.attempts + " times");
+        } else {
+            task.state = State.PENDING;
+        }
+        notifyAll();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.cluster;
+
+import com.moosemorals.movieeditor.Config;
+import com.moosemorals.movieeditor.ProgressMonitor;
+import com.moosemorals.movieeditor.Splitter;
+import com.moosemorals.movieeditor.TimingPair;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cuts segments for a {@link Coordinator}, one at a time, until it says the
+ * job is over. Any number of workers can run against one coordinator, on this
+ * machine or others that see the same files.
+ * <p>
+ * The coordinator stops its server once the parts are joined, so a worker
+ * that has already heard from it takes a refused connection to mean the job
+ * is over too.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class Worker {
+
+    /**
+     * How often a running segment reports in. Well inside
+     * {@link Coordinator#LEASE_MS}.
+     */
+    public static final long HEARTBEAT_MS = 2000;
+
+    /**
+     * How long to wait before asking again when there's nothing to do, or
+     * the coordinator can't be reached.
+     */
+    public static final long IDLE_MS = 1000;
+
+    /**
+     * How many times in a row the coordinator can fail to answer before the
+     * worker gives up.
+     */
+    public static final int MAX_MISSED = 30;
+
+    private final Logger log = LoggerFactory.getLogger(Worker.class);
+
+    private final String coordinator;
+    private final Config baseConfig;
+    private final String name;
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param coordinator base URL of the coordinator's server
+     * @param baseConfig settings for cutting. Input and temp dir come from the
+     * coordinator.
+     */
+    public Worker(String coordinator, Config baseConfig) {
+        this.coordinator = coordinator.endsWith("/") ? coordinator.substring(0, coordinator.length() - 1) : coordinator;
+        this.baseConfig = baseConfig;
+        this.name = ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    /**
+     * Lease and cut segments until the coordinator has none left.
+     *
+     * @throws IOException if the coordinator can't be reached
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        log.info("Worker {} starting against {}", name, coordinator);
+        try (CloseableHttpClient client = HttpClients.createDefault()) {
+            int missed = 0;
+            boolean reached = false;
+            while (true) {
+                Properties task;
+                try (CloseableHttpResponse response = client.execute(new HttpPost(uri("lease")))) {
+                    missed = 0;
+                    reached = true;
+                    int status = response.getStatusLine().getStatusCode();
+                    if (status == HttpStatus.SC_GONE) {
+                        log.info("Worker {} finished", name);
+                        return;
+                    } else if (status != HttpStatus.SC_OK) {
+                        Thread.sleep(IDLE_MS);
+                        continue;
+                    }
+                    task = new Properties();
+                    try (Reader in = new InputStreamReader(response.getEntity().getContent(), "UTF-8")) {
+                        task.load(in);
+                    }
+                } catch (IOException ex) {
+                    if (reached && ex instanceof HttpHostConnectException) {
+                        log.info("Worker {} finished, coordinator has gone", name);
+                        return;
+                    }
+                    missed += 1;
+                    if (missed >= MAX_MISSED) {
+                        throw ex;
+                    }
+                    log.debug("Can't reach coordinator: {}", ex.getMessage());
+                    Thread.sleep(IDLE_MS);
+                    continue;
+                }
+                work(client, task);
+            }
+        } finally {
+            heartbeats.shutdownNow();
+        }
+    }
+
+    private void work(CloseableHttpClient client, Properties task) throws InterruptedException {
+        String job = task.getProperty("job");
+        String id = task.getProperty("task");
+        TimingPair pair = new TimingPair(Long.parseLong(task.getProperty("start")), Long.parseLong(task.getProperty("duration")));
+        Config config = new Config.Builder(baseConfig)
+                .setInputFile(task.getProperty("input"))
+                .setTempDir(new File(task.getProperty("tempDir")))
+                // Parts are only joined if they were cut the coordinator's way
+                .setExtractMode(Config.ExtractMode.valueOf(task.getProperty("mode")))
+                .setJobId(job)
+                // Parts have to be where the coordinator can see them
+                .setStagingDir(null)
+                .build();
+
+        ProgressMonitor monitor = new ProgressMonitor(Collections.singletonList(pair));
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(() -> {
+            post(client, "heartbeat", job, id,
+                    "progress", Long.toString((long) monitor.getDoneMillis(ProgressMonitor.Stage.CUT)),
+                    "bytes", Long.toString(monitor.getBytesWritten()));
+        }, HEARTBEAT_MS, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+
+        log.info("Cutting segment {} of {}: {}", id, job, pair);
+        try {
+            Splitter.cut(config, pair, monitor);
+            heartbeat.cancel(false);
+            post(client, "done", job, id,
+                    "bytes", Long.toString(monitor.getBytesWritten()));
+        } catch (IOException | RuntimeException ex) {
+            heartbeat.cancel(false);
+            log.error("Segment {} of {} failed", id, job, ex);
+            post(client, "failed", job, id, "reason", String.valueOf(ex.getMessage()));
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Report to the coordinator. Failures are only logged, since a lost
+     * heartbeat or result just means the segment is handed out again.
+     */
+    private void post(CloseableHttpClient client, String action, String job, String task, String... params) {
+        try {
+            URIBuilder b = new URIBuilder(uri(action))
+                    .addParameter("job", job)
+                    .addParameter("task", task);
+            for (int i = 0; i + 1 < params.length; i += 2) {
+                b.addParameter(params[i], params[i + 1]);
+            }
+            try (CloseableHttpResponse response = client.execute(new HttpPost(b.build()))) {
+                EntityUtils.consume(response.getEntity());
+                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                    log.warn("Coordinator refused {} for segment {}: {}", action, task, response.getStatusLine());
+                }
+            }
+        } catch (IOException | URISyntaxException ex) {
+            log.warn("Can't send {} for segment {}: {}", action, task, ex.getMessage());
+        }
+    }
+
+    private String uri(String action) {
+        try {
+            return new URIBuilder(coordinator + Coordinator.PATH + action)
+                    .addParameter("worker", name)
+                    .build().toString();
+        } catch (URISyntaxException ex) {
+            throw new IllegalArgumentException("Bad coordinator URL " + coordinator, ex);
+        }
+    }
+}
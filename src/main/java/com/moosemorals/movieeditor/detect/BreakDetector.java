@@ -0,0 +1,260 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.detect;
+
+import com.moosemorals.movieeditor.Config;
+import com.moosemorals.movieeditor.CutList;
+import com.moosemorals.movieeditor.TimingPair;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the programme in a recording by looking for the black, silent frames
+ * that broadcasters put either side of adverts.
+ * <p>
+ * The input is split into {@link Config#getThreads()} windows and each is run
+ * through ffmpeg's <code>blackdetect</code> and <code>silencedetect</code>
+ * filters at the same time. Windows overlap a little so a break that
+ * straddles a boundary is seen whole by one of them. The intervals from every
+ * window are merged, and where black and silence coincide there's a break
+ * marker. Adverts are short, so any stretch between markers longer than
+ * {@link #MIN_PROGRAMME_MS} is taken to be programme.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class BreakDetector {
+
+    /**
+     * Stretches between markers shorter than this are adverts, trailers or
+     * idents.
+     */
+    public static final long MIN_PROGRAMME_MS = 120 * 1000;
+
+    static final long WINDOW_OVERLAP_MS = 10 * 1000;
+
+    private static final String BLACK_FILTER = "blackdetect=d=0.1:pix_th=0.10";
+    private static final String SILENCE_FILTER = "silencedetect=noise=-50dB:d=0.1";
+
+    private final Logger log = LoggerFactory.getLogger(BreakDetector.class);
+
+    private final Config config;
+
+    public BreakDetector(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Find the programme segments in the config's input file.
+     *
+     * @return segments to keep, in order
+     * @throws IOException if ffmpeg can't read the input
+     */
+    public CutList detect() throws IOException {
+        long duration = Probe.durationMillis(config);
+        int windows = (int) Math.max(1, Math.min(config.getThreads(), duration / (WINDOW_OVERLAP_MS * 2)));
+        long windowLength = (duration + windows - 1) / windows;
+        log.info("Detecting breaks in {} ({}) with {} windows", config.getInputFile(), TimingPair.format(duration), windows);
+
+        List<DetectionParser> results = analyse(duration, windows, windowLength);
+
+        CutList black = new CutList();
+        CutList silence = new CutList();
+        for (DetectionParser result : results) {
+            black.addAll(result.getBlack());
+            silence.addAll(result.getSilence());
+        }
+        black = union(black);
+        silence = union(silence);
+
+        // No audio, or nothing quiet enough: go on black alone
+        CutList markers = silence.isEmpty() ? black : intersect(black, silence);
+        log.info("Found {} black, {} silent, {} markers", black.size(), silence.size(), markers.size());
+
+        return programme(markers, duration);
+    }
+
+    private List<DetectionParser> analyse(long duration, int windows, long windowLength) throws IOException {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(windows, r -> {
+            Thread t = new Thread(r, "Detector-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        Set<Process> running = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        CompletionService<DetectionParser> completion = new ExecutorCompletionService<>(pool);
+        List<Future<DetectionParser>> futures = new ArrayList<>(windows);
+        List<DetectionParser> results = new ArrayList<>(windows);
+
+        try {
+            for (int i = 0; i < windows; i += 1) {
+                long start = Math.max(0, i * windowLength - WINDOW_OVERLAP_MS);
+                long end = Math.min(duration, (i + 1) * windowLength + WINDOW_OVERLAP_MS);
+                futures.add(completion.submit(() -> analyseWindow(start, end, running)));
+            }
+
+            for (int i = 0; i < futures.size(); i += 1) {
+                try {
+                    results.add(completion.take().get());
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while detecting breaks");
+        } finally {
+            for (Future<DetectionParser> f : futures) {
+                f.cancel(true);
+            }
+            for (Process p : running) {
+                p.destroy();
+            }
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    private DetectionParser analyseWindow(long start, long end, Set<Process> running) throws IOException {
+        String[] cmd = {
+            config.getFfmpeg(),
+            "-hide_banner",
+            "-nostats",
+            "-ss", TimingPair.format(start),
+            "-t", TimingPair.format(end - start),
+            "-i", config.getInputFile(),
+            "-vf", BLACK_FILTER,
+            "-af", SILENCE_FILTER,
+            "-f", "null",
+            "-"
+        };
+
+        DetectionParser parser = new DetectionParser(start);
+        log.debug("Analysing {} to {}", TimingPair.format(start), TimingPair.format(end));
+
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+        running.add(p);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), "utf-8"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                parser.line(line);
+            }
+            if (p.waitFor() != 0) {
+                throw new IOException("ffmpeg failed analysing " + TimingPair.format(start) + " to " + TimingPair.format(end));
+            }
+        } catch (InterruptedException ex) {
+            p.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while analysing");
+        } finally {
+            running.remove(p);
+        }
+        parser.finish(end);
+        return parser;
+    }
+
+    /**
+     * Sort and merge overlapping intervals.
+     */
+    static CutList union(CutList intervals) {
+        CutList sorted = new CutList(intervals);
+        sorted.sort((a, b) -> Long.compare(a.getStartMillis(), b.getStartMillis()));
+
+        CutList result = new CutList(sorted.size());
+        int i = 0;
+        while (i < sorted.size()) {
+            long start = sorted.getStartMillis(i);
+            long end = sorted.getEndMillis(i);
+            i += 1;
+            while (i < sorted.size() && sorted.getStartMillis(i) <= end) {
+                end = Math.max(end, sorted.getEndMillis(i));
+                i += 1;
+            }
+            result.add(start, end - start);
+        }
+        return result;
+    }
+
+    /**
+     * Where two sorted, disjoint interval lists overlap.
+     */
+    static CutList intersect(CutList a, CutList b) {
+        CutList result = new CutList();
+        int i = 0;
+        int j = 0;
+        while (i < a.size() && j < b.size()) {
+            long start = Math.max(a.getStartMillis(i), b.getStartMillis(j));
+            long end = Math.min(a.getEndMillis(i), b.getEndMillis(j));
+            if (end > start) {
+                result.add(start, end - start);
+            }
+            if (a.getEndMillis(i) < b.getEndMillis(j)) {
+                i += 1;
+            } else {
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The long stretches between markers.
+     */
+    static CutList programme(CutList markers, long duration) {
+        CutList result = new CutList();
+        long from = 0;
+        for (int i = 0; i <= markers.size(); i += 1) {
+            long to = i < markers.size() ? markers.getStartMillis(i) : duration;
+            if (to - from >= MIN_PROGRAMME_MS) {
+                result.add(from, to - from);
+            }
+            if (i < markers.size()) {
+                from = markers.getEndMillis(i);
+            }
+        }
+        return result;
+    }
+}
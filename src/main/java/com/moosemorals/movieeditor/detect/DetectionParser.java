@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.detect;
+
+import com.moosemorals.movieeditor.CutList;
+
+/**
+ * Picks black and silent intervals out of ffmpeg's <code>blackdetect</code>
+ * and <code>silencedetect</code> log lines for one window of the input.
+ * Times in the log are relative to the start of the window, so they are moved
+ * by <code>offset</code> to make them absolute.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+class DetectionParser {
+
+    private static final String BLACK_START = "black_start:";
+    private static final String BLACK_END = "black_end:";
+    private static final String SILENCE_START = "silence_start:";
+    private static final String SILENCE_END = "silence_end:";
+
+    private final long offset;
+    private final CutList black = new CutList();
+    private final CutList silence = new CutList();
+    private long silenceStart = -1;
+
+    DetectionParser(long offset) {
+        this.offset = offset;
+    }
+
+    void line(String line) {
+        if (line.startsWith("[blackdetect")) {
+            int start = line.indexOf(BLACK_START);
+            int end = line.indexOf(BLACK_END);
+            if (start >= 0 && end >= 0) {
+                long from = millis(line, start + BLACK_START.length());
+                black.add(from, millis(line, end + BLACK_END.length()) - from);
+            }
+        } else if (line.startsWith("[silencedetect")) {
+            int start = line.indexOf(SILENCE_START);
+            int end = line.indexOf(SILENCE_END);
+            if (start >= 0) {
+                silenceStart = millis(line, start + SILENCE_START.length());
+            } else if (end >= 0 && silenceStart >= 0) {
+                silence.add(silenceStart, millis(line, end + SILENCE_END.length()) - silenceStart);
+                silenceStart = -1;
+            }
+        }
+    }
+
+    /**
+     * Close off silence that was still going when the window ended. (Newer
+     * ffmpegs do this themselves, older ones don't.)
+     *
+     * @param end absolute end of the window
+     */
+    void finish(long end) {
+        if (silenceStart >= 0 && end > silenceStart) {
+            silence.add(silenceStart, end - silenceStart);
+        }
+        silenceStart = -1;
+    }
+
+    CutList getBlack() {
+        return black;
+    }
+
+    CutList getSilence() {
+        return silence;
+    }
+
+    /**
+     * Read a time in seconds starting at <code>from</code>, after any spaces.
+     *
+     * @return absolute milliseconds, never before the start of the window
+     */
+    private long millis(String line, int from) {
+        while (from < line.length() && line.charAt(from) == ' ') {
+            from += 1;
+        }
+        int to = from;
+        while (to < line.length() && line.charAt(to) != ' ') {
+            to += 1;
+        }
+        double seconds = Double.parseDouble(line.substring(from, to));
+        return offset + Math.max(0, Math.round(seconds * 1000));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.detect;
+
+import com.moosemorals.movieeditor.Config;
+import com.moosemorals.movieeditor.TimingPair;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+
+/**
+ * Asks ffmpeg about the input file.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+class Probe {
+
+    private static final String DURATION = "Duration: ";
+
+    private Probe() {
+    }
+
+    /**
+     * Length of the input, from the header ffmpeg prints when it opens a file.
+     *
+     * @param config
+     * @return
+     * @throws IOException if ffmpeg doesn't report a duration
+     */
+    static long durationMillis(Config config) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(config.getFfmpeg(), "-hide_banner", "-i", config.getInputFile());
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+        long duration = -1;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), "utf-8"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int start = line.indexOf(DURATION);
+                if (duration < 0 && start >= 0) {
+                    start += DURATION.length();
+                    int end = line.indexOf(',', start);
+                    try {
+                        duration = TimingPair.parseMillis(line, start, end < 0 ? line.length() : end);
+                    } catch (IllegalArgumentException ex) {
+                        // "N/A", carry on and fail below
+                    }
+                }
+            }
+            // No output file, so this always fails
+            p.waitFor();
+        } catch (InterruptedException ex) {
+            p.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while probing");
+        }
+        if (duration <= 0) {
+            throw new IOException("Can't find duration of " + config.getInputFile());
+        }
+        return duration;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.http;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.ExceptionLogger;
+import org.apache.http.impl.nio.bootstrap.HttpServer;
+import org.apache.http.impl.nio.bootstrap.ServerBootstrap;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking version of {@link LocalServer}. Progress bodies are read as
+ * they arrive by a few reactor threads, rather than a thread per connection,
+ * so one server can follow many ffmpeg processes at once.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class AsyncLocalServer implements ProgressServer {
+
+    private final Logger log = LoggerFactory.getLogger(AsyncLocalServer.class);
+
+    private final HttpServer server;
+
+    public AsyncLocalServer(int port, MonitorRegistry monitors) {
+
+        IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(Math.min(2, Runtime.getRuntime().availableProcessors()))
+                .setTcpNoDelay(true)
+                .setSoReuseAddress(true)
+                .build();
+
+        server = ServerBootstrap.bootstrap()
+                .setListenerPort(port)
+                .setServerInfo("Movie Splitter")
+                .setIOReactorConfig(reactorConfig)
+                .setExceptionLogger(new ExceptionLoggerImpl())
+                .setHandlerMapper(new AsyncRequestMapper(monitors))
+                .create();
+    }
+
+    @Override
+    public void start() {
+        try {
+            log.debug("Server starting");
+            server.start();
+        } catch (IOException ex) {
+            log.error("Server shutdown", ex);
+        }
+    }
+
+    @Override
+    public void stop() {
+        log.debug("Stop request");
+        server.shutdown(1, TimeUnit.SECONDS);
+        log.debug("Stop request completed");
+    }
+
+    private static class ExceptionLoggerImpl implements ExceptionLogger {
+
+        private final Logger log = LoggerFactory.getLogger(ExceptionLoggerImpl.class);
+
+        @Override
+        public void log(Exception ex) {
+            if (ex instanceof java.net.SocketTimeoutException) {
+                return;
+            }
+            log.error("Internal HTTP error", ex);
+        }
+    }
+}
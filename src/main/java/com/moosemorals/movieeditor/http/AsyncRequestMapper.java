@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.http;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.nio.protocol.BasicAsyncRequestHandler;
+import org.apache.http.nio.protocol.HttpAsyncRequestHandler;
+import org.apache.http.nio.protocol.HttpAsyncRequestHandlerMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link RequestMapper} for {@link AsyncLocalServer}.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class AsyncRequestMapper implements HttpAsyncRequestHandlerMapper {
+
+    private final Logger log = LoggerFactory.getLogger(AsyncRequestMapper.class);
+    private final ProgressAsyncHandler handler;
+    private final BasicAsyncRequestHandler metricsHandler = new BasicAsyncRequestHandler(new MetricsRequestHandler());
+
+    public AsyncRequestMapper(MonitorRegistry monitors) {
+        handler = new ProgressAsyncHandler(monitors);
+    }
+
+    @Override
+    public HttpAsyncRequestHandler<?> lookup(HttpRequest request) {
+
+        if (request.getRequestLine().getMethod().equals("POST")) {
+            return handler;
+        } else if (RequestMapper.isMetrics(request)) {
+            return metricsHandler;
+        } else {
+            return null;
+        }
+    }
+
+}
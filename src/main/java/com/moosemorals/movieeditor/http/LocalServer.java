@@ -43,13 +43,21 @@ import org.slf4j.LoggerFactory;
  *
  * @author Osric Wilkinson <osric@fluffypeople.com>
  */
-public class LocalServer implements Runnable {
+public class LocalServer implements ProgressServer, Runnable {
 
     private final Logger log = LoggerFactory.getLogger(LocalServer.class);
 
     private final HttpServer server;
 
     public LocalServer(int port, ProgressMonitor monitor) {
+        this(port, new MonitorRegistry(monitor));
+    }
+
+    public LocalServer(int port, MonitorRegistry monitors) {
+        this(port, new RequestMapper(monitors));
+    }
+
+    public LocalServer(int port, RequestMapper mapper) {
 
         HttpProcessor httpproc = HttpProcessorBuilder.create()
                 .add(new ResponseDate())
@@ -60,6 +68,7 @@ public class LocalServer implements Runnable {
 
         SocketConfig socketConfig = SocketConfig.custom()
                 .setSoTimeout(1500)
+                .setSoReuseAddress(true)
                 .setTcpNoDelay(true)
                 .build();
 
@@ -68,17 +77,19 @@ public class LocalServer implements Runnable {
                 .setHttpProcessor(httpproc)
                 .setSocketConfig(socketConfig)
                 .setExceptionLogger(new ExceptionLoggerImpl())
-                .setHandlerMapper(new RequestMapper(monitor))
+                .setHandlerMapper(mapper)
                 .create();
 
     }
 
+    @Override
     public void start() {
         Thread t = new Thread(this, "WebServer");
         t.setDaemon(true);
         t.start();
     }
 
+    @Override
     public void stop() {
         log.debug("Stop request");
         server.shutdown(1, TimeUnit.SECONDS);
@@ -101,7 +112,7 @@ public class LocalServer implements Runnable {
 
         @Override
         public void log(Exception ex) {
-            if (ex instanceof java.net.SocketTimeoutException) {
+            if (ex instanceof java.net.SocketTimeoutException || ex instanceof org.apache.http.ConnectionClosedException) {
                 return;
             }
             log.error("Internal HTTP error", ex);
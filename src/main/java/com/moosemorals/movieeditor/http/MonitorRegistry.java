@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.http;
+
+import com.moosemorals.movieeditor.ProgressMonitor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Which {@link ProgressMonitor} a progress report belongs to. Jobs that share a
+ * server register their monitor under their job id, and report to
+ * {@link RequestMapper#PROGRESS_PATH} followed by that id. Reports to any
+ * other path go to the default monitor.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class MonitorRegistry {
+
+    private final Logger log = LoggerFactory.getLogger(MonitorRegistry.class);
+
+    private final ProgressMonitor defaultMonitor;
+    private final Map<String, ProgressMonitor> monitors;
+
+    public MonitorRegistry(ProgressMonitor defaultMonitor) {
+        this.defaultMonitor = defaultMonitor;
+        this.monitors = new ConcurrentHashMap<>();
+    }
+
+    public void register(String jobId, ProgressMonitor monitor) {
+        log.debug("Registering monitor for job {}", jobId);
+        monitors.put(jobId, monitor);
+    }
+
+    public void unregister(String jobId) {
+        log.debug("Removing monitor for job {}", jobId);
+        monitors.remove(jobId);
+    }
+
+    /**
+     * Find the monitor for a request.
+     *
+     * @param uri request URI
+     * @return the monitor, or null if nothing is listening.
+     */
+    public ProgressMonitor lookup(String uri) {
+        if (uri.startsWith(RequestMapper.PROGRESS_PATH)) {
+            int end = uri.indexOf('?');
+            String jobId = uri.substring(RequestMapper.PROGRESS_PATH.length(), end < 0 ? uri.length() : end);
+            ProgressMonitor monitor = monitors.get(jobId);
+            if (monitor != null) {
+                return monitor;
+            }
+            log.warn("No monitor for job {}", jobId);
+        }
+        return defaultMonitor;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.http;
+
+import com.moosemorals.movieeditor.ProgressTracker;
+import java.io.IOException;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.nio.protocol.BasicAsyncResponseProducer;
+import org.apache.http.nio.protocol.HttpAsyncExchange;
+import org.apache.http.nio.protocol.HttpAsyncRequestConsumer;
+import org.apache.http.nio.protocol.HttpAsyncRequestHandler;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Non-blocking version of {@link ProgressRequestHandler}. The work is done by
+ * {@link ProgressRequestConsumer} as the body arrives, so by the time
+ * {@link #handle} is called all that's left is to say thanks.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class ProgressAsyncHandler implements HttpAsyncRequestHandler<ProgressTracker> {
+
+    private final MonitorRegistry monitors;
+
+    public ProgressAsyncHandler(MonitorRegistry monitors) {
+        this.monitors = monitors;
+    }
+
+    @Override
+    public HttpAsyncRequestConsumer<ProgressTracker> processRequest(HttpRequest request, HttpContext context) throws HttpException, IOException {
+        return new ProgressRequestConsumer(monitors);
+    }
+
+    @Override
+    public void handle(ProgressTracker data, HttpAsyncExchange exchange, HttpContext context) throws HttpException, IOException {
+        HttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.SC_OK);
+        exchange.submitResponse(new BasicAsyncResponseProducer(response));
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.http;
+
+import com.moosemorals.movieeditor.ProgressMonitor;
+import com.moosemorals.movieeditor.ProgressTracker;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncRequestConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a progress body a chunk at a time as it arrives, and passes it
+ * straight on to a {@link ProgressTracker}.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+class ProgressRequestConsumer extends AbstractAsyncRequestConsumer<ProgressTracker> {
+
+    private final Logger log = LoggerFactory.getLogger(ProgressRequestConsumer.class);
+
+    private final MonitorRegistry monitors;
+    private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private ProgressTracker tracker;
+
+    ProgressRequestConsumer(MonitorRegistry monitors) {
+        this.monitors = monitors;
+    }
+
+    @Override
+    protected void onRequestReceived(HttpRequest request) throws HttpException, IOException {
+        String uri = request.getRequestLine().getUri();
+        ProgressMonitor monitor = monitors.lookup(uri);
+        if (monitor == null) {
+            log.warn("Nobody listening for {}", request.getRequestLine());
+            return;
+        }
+        tracker = new ProgressTracker(monitor, ProgressRequestHandler.getTimingPairsFromUri(uri), ProgressRequestHandler.getStageFromUri(uri));
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+        while (decoder.read(buffer) > 0) {
+            buffer.flip();
+            if (tracker != null) {
+                tracker.feed(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    @Override
+    protected ProgressTracker buildResult(HttpContext context) throws Exception {
+        if (tracker != null) {
+            tracker.finish();
+        }
+        return tracker;
+    }
+
+    @Override
+    protected void releaseResources() {
+        tracker = null;
+    }
+
+}
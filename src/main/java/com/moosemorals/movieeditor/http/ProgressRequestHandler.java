@@ -23,12 +23,15 @@
  */
 package com.moosemorals.movieeditor.http;
 
+import com.moosemorals.movieeditor.CutList;
 import com.moosemorals.movieeditor.ProgressMonitor;
+import com.moosemorals.movieeditor.ProgressTracker;
 import com.moosemorals.movieeditor.TimingPair;
-import java.io.BufferedReader;
+import com.moosemorals.movieeditor.Tracer;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.util.List;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
@@ -49,10 +52,10 @@ import org.slf4j.LoggerFactory;
 public class ProgressRequestHandler implements HttpRequestHandler {
 
     private final Logger log = LoggerFactory.getLogger(ProgressRequestHandler.class);
-    private final ProgressMonitor monitor;
+    private final MonitorRegistry monitors;
 
-    public ProgressRequestHandler(ProgressMonitor monitor) {
-        this.monitor = monitor;
+    public ProgressRequestHandler(MonitorRegistry monitors) {
+        this.monitors = monitors;
     }
 
     @Override
@@ -62,42 +65,31 @@ public class ProgressRequestHandler implements HttpRequestHandler {
 
             HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
 
-            TimingPair timing = getTimingPairFromUri(request.getRequestLine().getUri());
-
-            BufferedReader in = new BufferedReader(new InputStreamReader(entity.getContent(), "UTF-8"));
-
-            long out_time_start = 0;
-            float lastPercent = 0;
+            ProgressMonitor monitor = monitors.lookup(request.getRequestLine().getUri());
+            if (monitor == null) {
+                log.warn("Nobody listening for {}", request.getRequestLine());
+                EntityUtils.consumeQuietly(entity);
+                return;
+            }
 
-            String line;
-            while ((line = in.readLine()) != null) {
-                String[] parts = line.split("=");
-                String key = parts[0];
-                String value = parts[1];
+            String uri = request.getRequestLine().getUri();
+            List<TimingPair> timings = getTimingPairsFromUri(uri);
 
-                switch (key) {
-                    case "progress":
-                        if (value.equals("end")) {
-                            log.debug("done");
-                        }
-                        break;
-                    case "out_time_ms":
-                        if (out_time_start == 0) {
-                            out_time_start = Long.parseLong(value);
-                        } else {
-                            long done_ms = (Long.parseLong(value) - out_time_start) / 1000;
-                            float currentPercent = ((float) done_ms / timing.getDuration().getMillis()) - lastPercent;
-
-                            monitor.addDuration(currentPercent);
-                            lastPercent += currentPercent;
-                            log.debug("Percent done: {}%", currentPercent * 100);
-                        }
+            InputStream in = entity.getContent();
 
-                        break;
+            try (Tracer.Span span = Tracer.span("progress request")) {
+                ProgressTracker tracker = new ProgressTracker(monitor, timings, getStageFromUri(uri));
+                byte[] buffer = new byte[4096];
+                long total = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    tracker.feed(buffer, 0, read);
+                    total += read;
                 }
+                tracker.finish();
+                span.arg("bytes", total);
             }
 
-            monitor.fileCompleted();
             EntityUtils.consumeQuietly(entity);
 
         } else {
@@ -105,22 +97,48 @@ public class ProgressRequestHandler implements HttpRequestHandler {
         }
     }
 
-    private static TimingPair getTimingPairFromUri(String uri) throws IOException {
+    /**
+     * Read which stage of the run a progress stream is for from its URI's
+     * <code>stage</code> parameter. Cutting, if there isn't one.
+     */
+    static ProgressMonitor.Stage getStageFromUri(String uri) throws IOException {
+        try {
+            for (NameValuePair pair : new URIBuilder(uri).getQueryParams()) {
+                if (pair.getName().equals("stage")) {
+                    return ProgressMonitor.Stage.valueOf(pair.getValue().toUpperCase());
+                }
+            }
+            return ProgressMonitor.Stage.CUT;
+        } catch (URISyntaxException | IllegalArgumentException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Read the segments a progress stream covers from its URI. Each segment is
+     * a <code>start</code> parameter followed by a <code>duration</code>.
+     */
+    static List<TimingPair> getTimingPairsFromUri(String uri) throws IOException {
 
         try {
-            String start = null, duration = null;
+            CutList result = new CutList();
+            String start = null;
             for (NameValuePair pair : new URIBuilder(uri).getQueryParams()) {
                 switch (pair.getName()) {
                     case "start":
                         start = pair.getValue();
                         break;
                     case "duration":
-                        duration = pair.getValue();
+                        if (start == null) {
+                            throw new URISyntaxException(uri, "Duration without start");
+                        }
+                        result.add(TimingPair.parseMillis(start), TimingPair.parseMillis(pair.getValue()));
+                        start = null;
                         break;
                 }
             }
-            if (start != null && duration != null) {
-                return new TimingPair(start, duration);
+            if (!result.isEmpty()) {
+                return result;
             } else {
                 throw new URISyntaxException(uri, "Missing start or end parameters");
             }
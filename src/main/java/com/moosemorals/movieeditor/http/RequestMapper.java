@@ -24,6 +24,8 @@
 package com.moosemorals.movieeditor.http;
 
 import com.moosemorals.movieeditor.ProgressMonitor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.http.HttpRequest;
 import org.apache.http.protocol.HttpRequestHandler;
 import org.apache.http.protocol.HttpRequestHandlerMapper;
@@ -36,21 +38,62 @@ import org.slf4j.LoggerFactory;
  */
 public class RequestMapper implements HttpRequestHandlerMapper {
 
+    /**
+     * Prefix for per-job progress reports.
+     */
+    public static final String PROGRESS_PATH = "/progress/";
+
+    public static final String METRICS_PATH = "/metrics";
+
     private final Logger log = LoggerFactory.getLogger(RequestMapper.class);
     private final ProgressRequestHandler handler;
+    private final MetricsRequestHandler metricsHandler = new MetricsRequestHandler();
+    private final Map<String, HttpRequestHandler> extraHandlers = new ConcurrentHashMap<>();
 
     public RequestMapper(ProgressMonitor monitor) {
-        handler = new ProgressRequestHandler(monitor);
+        this(new MonitorRegistry(monitor));
+    }
+
+    public RequestMapper(MonitorRegistry monitors) {
+        handler = new ProgressRequestHandler(monitors);
+    }
+
+    /**
+     * Send requests under a path to a handler of their own, ahead of progress
+     * reports and metrics.
+     *
+     * @param prefix path prefix, such as <code>/cluster/</code>
+     * @param handler
+     * @return this mapper
+     */
+    public RequestMapper addHandler(String prefix, HttpRequestHandler handler) {
+        extraHandlers.put(prefix, handler);
+        return this;
     }
 
     @Override
     public HttpRequestHandler lookup(HttpRequest request) {
+        String uri = request.getRequestLine().getUri();
+        for (Map.Entry<String, HttpRequestHandler> e : extraHandlers.entrySet()) {
+            if (uri.startsWith(e.getKey())) {
+                return e.getValue();
+            }
+        }
 
         if (request.getRequestLine().getMethod().equals("POST")) {
             return handler;
+        } else if (isMetrics(request)) {
+            return metricsHandler;
         } else {
             return null;
         }
     }
 
+    static boolean isMetrics(HttpRequest request) {
+        String uri = request.getRequestLine().getUri();
+        int end = uri.indexOf('?');
+        return request.getRequestLine().getMethod().equals("GET")
+                && (end < 0 ? uri : uri.substring(0, end)).equals(METRICS_PATH);
+    }
+
 }
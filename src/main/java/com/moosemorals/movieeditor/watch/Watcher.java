@@ -0,0 +1,373 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Osric Wilkinson <osric@fluffypeople.com>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.moosemorals.movieeditor.watch;
+
+import com.moosemorals.movieeditor.Config;
+import com.moosemorals.movieeditor.CutListOptimizer;
+import com.moosemorals.movieeditor.ProgressLogger;
+import com.moosemorals.movieeditor.ProgressMonitor;
+import com.moosemorals.movieeditor.Splitter;
+import com.moosemorals.movieeditor.TimingDataParser;
+import com.moosemorals.movieeditor.TimingPair;
+import com.moosemorals.movieeditor.TsCutter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a folder for recordings, and cuts them while they're still being
+ * written.
+ * <p>
+ * A recording is any <code>.ts</code> file that turns up in the folder. Its
+ * cut list is a file next to it with the same name and {@link #CUT_LIST} on
+ * the end, and can be written at any time. Once there is a cut list, each
+ * segment is cut as soon as the recording has {@link #MARGIN_MS} written past
+ * the segment's end. A recording that hasn't grown for {@link #QUIET_MS} is
+ * finished, and whatever is left is cut. Once every segment is cut the parts
+ * are joined into the output folder under the recording's name, which can be
+ * before the recording ends if there's nothing wanted after the last cut.
+ * <p>
+ * Parts are cached under a key fixed when the recording is first seen, since
+ * its size and modification time change while it's written.
+ * <p>
+ * Progress history isn't updated, since most of a run is spent waiting for
+ * the broadcast.
+ *
+ * @author Osric Wilkinson <osric@fluffypeople.com>
+ */
+public class Watcher {
+
+    public static final String CUT_LIST = ".cuts";
+
+    /**
+     * How often growing recordings are checked.
+     */
+    public static final long POLL_MS = 5000;
+
+    /**
+     * How much has to be written after a segment ends before it's cut, so
+     * that the frames around its end are all there.
+     */
+    public static final long MARGIN_MS = 10000;
+
+    /**
+     * How long a recording has to stay the same size to count as finished.
+     */
+    public static final long QUIET_MS = 60000;
+
+    /**
+     * How many times a segment is tried before the recording is given up on.
+     */
+    public static final int MAX_ATTEMPTS = 3;
+
+    private final Logger log = LoggerFactory.getLogger(Watcher.class);
+
+    private final Path dir;
+    private final File outputDir;
+    private final Config baseConfig;
+    private final Map<Path, Recording> recordings = new LinkedHashMap<>();
+    private final ExecutorService pool;
+
+    /**
+     * @param dir folder to watch
+     * @param outputDir where finished recordings go
+     * @param baseConfig settings for every recording. Input, output and job id
+     * come from the recording.
+     */
+    public Watcher(File dir, File outputDir, Config baseConfig) {
+        this.dir = dir.toPath();
+        this.outputDir = outputDir;
+        this.baseConfig = baseConfig;
+        AtomicInteger threadCount = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(Math.max(1, baseConfig.getThreads()), r -> {
+            Thread t = new Thread(r, "Watcher-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Watch until interrupted. Recordings already in the folder are picked up
+     * too, unless their output is already there.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        try (WatchService watcher = dir.getFileSystem().newWatchService()) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+            try (DirectoryStream<Path> existing = Files.newDirectoryStream(dir, "*.ts")) {
+                for (Path p : existing) {
+                    Recording r = new Recording(p);
+                    if (r.output.exists()) {
+                        log.debug("Already done {}", p);
+                    } else {
+                        recordings.put(p, r);
+                    }
+                }
+            }
+            log.info("Watching {} with {} recordings", dir, recordings.size());
+
+            while (true) {
+                WatchKey key = watcher.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() != StandardWatchEventKinds.ENTRY_CREATE) {
+                            continue;
+                        }
+                        Path p = dir.resolve((Path) event.context());
+                        if (p.getFileName().toString().endsWith(".ts") && !recordings.containsKey(p)) {
+                            log.info("New recording {}", p);
+                            recordings.put(p, new Recording(p));
+                        }
+                    }
+                    if (!key.reset()) {
+                        throw new IOException("Can't watch " + dir + " any more");
+                    }
+                }
+                check();
+            }
+        } catch (ClosedWatchServiceException ex) {
+            throw new IOException("Watch service closed", ex);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void check() {
+        for (Iterator<Recording> it = recordings.values().iterator(); it.hasNext();) {
+            Recording r = it.next();
+            try {
+                if (r.check()) {
+                    it.remove();
+                }
+            } catch (IOException | RuntimeException ex) {
+                log.error("Giving up on {}", r.input, ex);
+                r.cancel();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * One recording, and how far through cutting it is. Only used from the
+     * watching thread.
+     */
+    private class Recording {
+
+        final Path input;
+        final File cutList;
+        final File output;
+        final Config config;
+        List<TimingPair> pairs;
+        ProgressMonitor monitor;
+        Future<?>[] cuts;
+        boolean[] done;
+        int[] attempts;
+        Future<?> join;
+        long size = -1;
+        long changedAt;
+
+        Recording(Path input) {
+            this.input = input;
+            String name = input.getFileName().toString();
+            cutList = new File(input.toFile().getPath() + CUT_LIST);
+            output = new File(outputDir, name);
+            String jobId = name.substring(0, name.length() - ".ts".length());
+            // Parts are only found again by their key with resume on
+            config = new Config.Builder(baseConfig)
+                    .setInputFile(input.toFile().getPath())
+                    .setOutputFile(output.getPath())
+                    .setJobId(jobId)
+                    .setCacheKey(jobId + "@" + System.currentTimeMillis())
+                    .setResume(true)
+                    .build();
+        }
+
+        /**
+         * Start whatever can be started.
+         *
+         * @return true when the output is written
+         */
+        boolean check() throws IOException {
+            long now = System.currentTimeMillis();
+            long current = Files.size(input);
+            if (current != size) {
+                size = current;
+                changedAt = now;
+            }
+            boolean finished = now - Math.max(changedAt, Files.getLastModifiedTime(input).toMillis()) >= QUIET_MS;
+
+            if (pairs == null) {
+                if (!cutList.isFile()) {
+                    return false;
+                }
+                load();
+            }
+
+            if (join != null) {
+                if (!join.isDone()) {
+                    return false;
+                }
+                get(join);
+                log.info("Finished {}", output);
+                return true;
+            }
+
+            boolean allDone = collect();
+
+            if (allDone) {
+                log.info("Every segment of {} is cut, joining", input);
+                join = pool.submit(() -> {
+                    // Parts cut early in a long recording may have been
+                    // evicted since, so cut anything missing again
+                    ProgressMonitor quiet = new ProgressMonitor(pairs);
+                    for (TimingPair pair : pairs) {
+                        Splitter.cut(config, pair, quiet);
+                    }
+                    Splitter.join(config, pairs, monitor);
+                    return null;
+                });
+                return false;
+            }
+
+            long written = finished ? Long.MAX_VALUE : writtenMillis();
+            for (int i = 0; i < pairs.size(); i += 1) {
+                TimingPair pair = pairs.get(i);
+                if (!done[i] && cuts[i] == null && pair.getEndMillis() + MARGIN_MS <= written) {
+                    attempts[i] += 1;
+                    log.info("Cutting {} from {}", pair, input);
+                    cuts[i] = pool.submit(() -> {
+                        Splitter.cut(config, pair, monitor);
+                        return null;
+                    });
+                }
+            }
+            return false;
+        }
+
+        private void load() throws IOException {
+            try (Reader in = new InputStreamReader(new FileInputStream(cutList), "utf-8")) {
+                pairs = TimingDataParser.parse(in);
+            }
+            pairs = CutListOptimizer.optimize(config, pairs);
+            monitor = new ProgressMonitor(pairs);
+            monitor.addListener(new ProgressLogger());
+            cuts = new Future<?>[pairs.size()];
+            done = new boolean[pairs.size()];
+            attempts = new int[pairs.size()];
+            log.info("Cut list for {} has {} segments", input, pairs.size());
+        }
+
+        /**
+         * Note finished cuts, and clear failed ones to be tried again.
+         *
+         * @return true if every segment is cut
+         */
+        private boolean collect() throws IOException {
+            boolean all = true;
+            for (int i = 0; i < cuts.length; i += 1) {
+                if (cuts[i] != null && cuts[i].isDone()) {
+                    try {
+                        get(cuts[i]);
+                        done[i] = true;
+                    } catch (IOException ex) {
+                        if (attempts[i] >= MAX_ATTEMPTS) {
+                            throw ex;
+                        }
+                        log.warn("Cutting {} from {} failed, will try again: {}", pairs.get(i), input, ex.getMessage());
+                    }
+                    cuts[i] = null;
+                }
+                all &= done[i];
+            }
+            return all;
+        }
+
+        /**
+         * How much of the recording has been written. Nothing, if that can't
+         * be told yet, such as when the file is too short to have a program.
+         */
+        private long writtenMillis() {
+            try (TsCutter ts = new TsCutter(input.toFile())) {
+                return ts.getWrittenMillis();
+            } catch (IOException ex) {
+                log.debug("Can't tell how much of {} is written: {}", input, ex.getMessage());
+                return 0;
+            }
+        }
+
+        private void get(Future<?> f) throws IOException {
+            try {
+                f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+        }
+
+        void cancel() {
+            List<Future<?>> running = new ArrayList<>();
+            if (cuts != null) {
+                for (Future<?> f : cuts) {
+                    if (f != null) {
+                        running.add(f);
+                    }
+                }
+            }
+            if (join != null) {
+                running.add(join);
+            }
+            for (Future<?> f : running) {
+                f.cancel(true);
+            }
+        }
+    }
+}